@@ -0,0 +1,167 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/*
+ * Bounded, instrumented thread pool. Tasks are returned as CompletableFutures and run on threads
+ * from the given factory, so App Engine request threads for work that must finish with the
+ * request, and background threads for work that may outlive it.
+ */
+public final class BoundedExecutor {
+
+  // Seconds an idle worker thread is kept before it is released.
+  private static final long KEEP_ALIVE_SECONDS = 60;
+
+  private final String name;
+  private final ThreadPoolExecutor pool;
+
+  // Instrumentation counters.
+  private final AtomicLong submitted = new AtomicLong();
+  private final AtomicLong completed = new AtomicLong();
+  private final AtomicLong rejected = new AtomicLong();
+  private final AtomicLong taskNanos = new AtomicLong();
+
+  /** BoundedExecutor constructor, with a fixed number of threads and queue capacity. */
+  public BoundedExecutor(String name, int threads, int queueCapacity, ThreadFactory factory) {
+    this.name = name;
+    this.pool =
+        new ThreadPoolExecutor(
+            threads,
+            threads,
+            KEEP_ALIVE_SECONDS,
+            TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(queueCapacity),
+            factory,
+            new ThreadPoolExecutor.AbortPolicy());
+    this.pool.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Run the task on the pool, returning a future for its result. If the queue is full, back
+   * pressure is applied by running the task on the caller's thread.
+   */
+  public <T> CompletableFuture<T> supply(Supplier<T> task) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    submitted.incrementAndGet();
+    try {
+      pool.execute(() -> run(task, future));
+    } catch (RejectedExecutionException e) {
+      rejected.incrementAndGet();
+      run(task, future);
+    }
+    return future;
+  }
+
+  /** Run the task on the pool, or return null without running it if the queue is full. */
+  public <T> CompletableFuture<T> offer(Supplier<T> task) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    submitted.incrementAndGet();
+    try {
+      pool.execute(() -> run(task, future));
+      return future;
+    } catch (RejectedExecutionException e) {
+      rejected.incrementAndGet();
+      return null;
+    }
+  }
+
+  /** Run the task on the calling thread, completing the future with its result or error. */
+  private <T> void run(Supplier<T> task, CompletableFuture<T> future) {
+    long start = System.nanoTime();
+    try {
+      future.complete(task.get());
+    } catch (Throwable e) {
+      future.completeExceptionally(e);
+    } finally {
+      taskNanos.addAndGet(System.nanoTime() - start);
+      completed.incrementAndGet();
+    }
+  }
+
+  /** Stop accepting tasks, letting queued tasks finish. */
+  public void shutdown() {
+    pool.shutdown();
+  }
+
+  /** Stop accepting tasks and wait for the queued and running ones to finish. */
+  public void shutdownAndWait() {
+    pool.shutdown();
+    boolean interrupted = false;
+    while (!pool.isTerminated()) {
+      try {
+        pool.awaitTermination(1, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  public int getActiveCount() {
+    return pool.getActiveCount();
+  }
+
+  public int getQueueDepth() {
+    return pool.getQueue().size();
+  }
+
+  public long getSubmittedCount() {
+    return submitted.get();
+  }
+
+  public long getCompletedCount() {
+    return completed.get();
+  }
+
+  public long getRejectedCount() {
+    return rejected.get();
+  }
+
+  /** Returns the average run time of a completed task in milliseconds. */
+  public double getAverageTaskMillis() {
+    long count = completed.get();
+    return count == 0 ? 0.0 : taskNanos.get() / 1e6 / count;
+  }
+
+  @Override
+  public String toString() {
+    return "{name: "
+        + name
+        + ", active: "
+        + getActiveCount()
+        + ", queued: "
+        + getQueueDepth()
+        + ", submitted: "
+        + getSubmittedCount()
+        + ", completed: "
+        + getCompletedCount()
+        + ", rejected: "
+        + getRejectedCount()
+        + ", averageTaskMillis: "
+        + getAverageTaskMillis()
+        + "}";
+  }
+}
@@ -0,0 +1,53 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/** Class containing a check in of a store, with its ratings and the time it was placed. */
+public final class CheckIn {
+
+  private final String storeId;
+  private final Map<String, Double> ratings = new HashMap<>();
+  private final Date date;
+
+  /**
+   * CheckIn constructor, given the rating parameters of the request. Throws a
+   * NumberFormatException if a rating is not a number.
+   */
+  public CheckIn(String storeId, Map<String, String[]> ratingsMap, Date date) {
+    this.storeId = storeId;
+    this.date = date;
+
+    // Http request getParamMap method formats in array instead of single value.
+    ratingsMap.forEach(
+        (String ratingField, String[] ratingValue) ->
+            ratings.put(ratingField, Double.parseDouble(ratingValue[0])));
+  }
+
+  public String getStoreId() {
+    return storeId;
+  }
+
+  public Map<String, Double> getRatings() {
+    return ratings;
+  }
+
+  public Date getDate() {
+    return date;
+  }
+}
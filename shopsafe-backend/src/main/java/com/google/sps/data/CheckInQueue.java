@@ -0,0 +1,228 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ * Bounded queue of check ins that are written to datastore behind the requests that placed them.
+ * A background flusher writes the queued check ins of each store together, and puts check ins
+ * that failed back on the queue to be tried again, logging the check ins it has to drop.
+ */
+public final class CheckInQueue {
+
+  private static final Logger logger = Logger.getLogger(CheckInQueue.class.getName());
+
+  private final ArrayBlockingQueue<Pending> queue;
+  private final long flushMillis;
+  private final int batchSize;
+  private final int flushAttempts;
+  private ScheduledExecutorService flusher;
+
+  // Counters for how well the queue is doing.
+  private final AtomicLong accepted = new AtomicLong();
+  private final AtomicLong written = new AtomicLong();
+  private final AtomicLong retried = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+
+  /**
+   * CheckInQueue constructor, given how many check ins it holds, how often it is flushed, how many
+   * check ins of a store are written together and how many times a check in is tried.
+   */
+  public CheckInQueue(int capacity, long flushMillis, int batchSize, int flushAttempts) {
+    this.queue = new ArrayBlockingQueue<>(capacity);
+    this.flushMillis = flushMillis;
+    this.batchSize = batchSize;
+    this.flushAttempts = flushAttempts;
+  }
+
+  /** Add a check in to be written, returns false if the queue is full. */
+  public boolean offer(CheckIn checkIn) {
+    if (!queue.offer(new Pending(checkIn))) {
+      return false;
+    }
+    accepted.incrementAndGet();
+    return true;
+  }
+
+  /**
+   * Start flushing the queue on a thread of the factory, does nothing if already started. The
+   * thread outlives the request that starts it, so on App Engine it must come from a background
+   * thread factory.
+   */
+  public synchronized void start(ThreadFactory threadFactory) {
+    if (flusher != null) {
+      return;
+    }
+    flusher = Executors.newSingleThreadScheduledExecutor(threadFactory);
+    flusher.scheduleWithFixedDelay(
+        () -> {
+          try {
+            flush();
+          } catch (RuntimeException e) {
+
+            // If there is an error, log it, the next flush will try again.
+            logger.log(Level.SEVERE, "Failed to flush check ins: " + this, e);
+          }
+        },
+        flushMillis,
+        flushMillis,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /** Stop flushing in the background, and write the check ins still queued on the caller. */
+  public synchronized void stop() {
+    if (flusher == null) {
+      return;
+    }
+    flusher.shutdown();
+    try {
+      flusher.awaitTermination(flushMillis * 10, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    flusher = null;
+    flush();
+    logger.info("Stopped check in queue: " + this);
+  }
+
+  /**
+   * Write the check ins queued now, grouped by store. Check ins that fail are queued again until
+   * they have been tried too many times.
+   */
+  public synchronized void flush() {
+    List<Pending> pending = new ArrayList<>();
+    queue.drainTo(pending);
+
+    // Group the check ins by store, keeping the order they were placed in.
+    Map<String, List<Pending>> pendingByStore = new LinkedHashMap<>();
+    for (Pending checkIn : pending) {
+      pendingByStore
+          .computeIfAbsent(checkIn.checkIn.getStoreId(), storeId -> new ArrayList<>())
+          .add(checkIn);
+    }
+    for (Map.Entry<String, List<Pending>> entry : pendingByStore.entrySet()) {
+      List<Pending> storePending = entry.getValue();
+      for (int start = 0; start < storePending.size(); start += batchSize) {
+        write(
+            entry.getKey(),
+            storePending.subList(start, Math.min(start + batchSize, storePending.size())));
+      }
+    }
+  }
+
+  /** Write check ins of a store together, queueing them again if that fails. */
+  private void write(String storeId, List<Pending> pending) {
+    List<CheckIn> checkIns = new ArrayList<>();
+    for (Pending checkIn : pending) {
+      checkIns.add(checkIn.checkIn);
+    }
+    try {
+      new StoreDatastoreHandler(storeId).placeCheckIns(checkIns);
+      written.addAndGet(checkIns.size());
+    } catch (RuntimeException e) {
+
+      // If there is an error, try the check ins again with the next flush.
+      logger.log(Level.WARNING, "Failed to write check ins of store " + storeId + ": " + this, e);
+      for (Pending checkIn : pending) {
+        checkIn.attempts++;
+        if (checkIn.attempts < flushAttempts && queue.offer(checkIn)) {
+          retried.incrementAndGet();
+        } else {
+          drop(checkIn, e);
+        }
+      }
+    }
+  }
+
+  /** Count and log a check in that will not be written, with what is needed to place it again. */
+  private void drop(Pending pending, RuntimeException cause) {
+    dropped.incrementAndGet();
+    CheckIn checkIn = pending.checkIn;
+    logger.log(
+        Level.SEVERE,
+        "Dropped check in of store "
+            + checkIn.getStoreId()
+            + " placed at "
+            + checkIn.getDate().getTime()
+            + " with ratings "
+            + checkIn.getRatings()
+            + " after "
+            + pending.attempts
+            + " attempts: "
+            + this,
+        cause);
+  }
+
+  public int getDepth() {
+    return queue.size();
+  }
+
+  public int getRemainingCapacity() {
+    return queue.remainingCapacity();
+  }
+
+  public long getAcceptedCount() {
+    return accepted.get();
+  }
+
+  public long getWrittenCount() {
+    return written.get();
+  }
+
+  public long getRetriedCount() {
+    return retried.get();
+  }
+
+  public long getDroppedCount() {
+    return dropped.get();
+  }
+
+  @Override
+  public String toString() {
+    return "{depth: "
+        + getDepth()
+        + ", accepted: "
+        + accepted.get()
+        + ", written: "
+        + written.get()
+        + ", retried: "
+        + retried.get()
+        + ", dropped: "
+        + dropped.get()
+        + "}";
+  }
+
+  /** Queued check in with the number of times writing it has failed. */
+  private static final class Pending {
+    private final CheckIn checkIn;
+    private int attempts = 0;
+
+    private Pending(CheckIn checkIn) {
+      this.checkIn = checkIn;
+    }
+  }
+}
@@ -16,9 +16,12 @@ package com.google.sps.data;
 
 import com.google.appengine.api.datastore.Entity;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /** Class containing all check in stats for a store. */
 public final class CheckInStats {
@@ -29,7 +32,10 @@ public final class CheckInStats {
   private double hygiene = 0.0;
   private double masks = 0.0;
   private long checkInCount = 0;
-  private List<Entity> ratingEntities;
+  private double currentCheckInScore = 5.0;
+  private Long decayedAt;
+  private long decayedTo;
+  private String storeId;
 
   // Static weights for calculating score.
   private static final double BUSY_WEIGHT = 0.25;
@@ -37,20 +43,36 @@ public final class CheckInStats {
   private static final double HYGIENE_WEIGHT = 0.25;
   private static final double MASK_WEIGHT = 0.25;
 
-  /** CheckInStats constructor. */
+  // Check ins of the default score added to the recent ones, so a few do not swing the score.
+  private static final double PRIOR_CHECK_INS = 1.0;
+
+  // The current score is decayed to the start of the period it is read in, not to the moment, so
+  // the score and the entity tags built from it stay the same until the next check in or period.
+  private static final long DECAY_PERIOD_MILLIS =
+      TimeUnit.MINUTES.toMillis(Long.getLong("shopsafe.ratings.decayPeriodMinutes", 60));
+
+  /** CheckInStats constructor, reads the rating sums kept on the store. */
   public CheckInStats(String storeId) {
+    this(storeId, new StoreDatastoreHandler(storeId).getStoreSums());
+  }
 
-    // Get datastore ratings of a store based on id.
-    StoreDatastoreHandler dataStoreService = new StoreDatastoreHandler(storeId);
-    this.ratingEntities = dataStoreService.getRatings();
-    checkInCount = ratingEntities.size();
-
-    // Sum the values for each category.
-    for (Entity ratingEntity : ratingEntities) {
-      busy += (double) ratingEntity.getProperty("busy");
-      line += (double) ratingEntity.getProperty("line");
-      hygiene += (double) ratingEntity.getProperty("hygiene");
-      masks += (double) ratingEntity.getProperty("mask");
+  /** CheckInStats constructor, given the rating sums of the store or null if it has none. */
+  private CheckInStats(String storeId, Entity storeEntity) {
+    this.storeId = storeId;
+
+    // Get the check in count and the sum of each category.
+    if (storeEntity != null) {
+      checkInCount = (long) storeEntity.getProperty("checkInCount");
+      busy = (double) storeEntity.getProperty("busySum");
+      line = (double) storeEntity.getProperty("lineSum");
+      hygiene = (double) storeEntity.getProperty("hygieneSum");
+      masks = (double) storeEntity.getProperty("maskSum");
+      if (storeEntity.hasProperty("decayedAt")) {
+        decayedAt = (long) storeEntity.getProperty("decayedAt");
+        long now = System.currentTimeMillis();
+        decayedTo = Math.max(now - now % DECAY_PERIOD_MILLIS, decayedAt);
+        currentCheckInScore = getDecayedScore(storeEntity, decayedTo - decayedAt);
+      }
     }
 
     // Average scores if there is available data.
@@ -69,6 +91,16 @@ public final class CheckInStats {
     }
   }
 
+  /** Returns the check in stats of each store, reading all their rating sums together. */
+  public static Map<String, CheckInStats> getCheckInStats(List<String> storeIds) {
+    Map<String, Entity> storeSums = StoreDatastoreHandler.getStoreSums(storeIds);
+    Map<String, CheckInStats> checkInStats = new HashMap<>();
+    for (String storeId : storeIds) {
+      checkInStats.put(storeId, new CheckInStats(storeId, storeSums.get(storeId)));
+    }
+    return checkInStats;
+  }
+
   public double getBusy() {
     return busy;
   }
@@ -90,7 +122,7 @@ public final class CheckInStats {
   }
 
   /**
-   * Using the list of Rating Entities, incrementally average the ratings for each category over a
+   * Using the daily sums of the store, incrementally average the ratings for each category over a
    * daily basis.
    */
   public HashMap<String, ArrayList<DataPoint>> compileRatingDays() {
@@ -98,6 +130,7 @@ public final class CheckInStats {
     double hygieneSum = 0.0;
     double lineSum = 0.0;
     double busySum = 0.0;
+    long countSum = 0;
 
     HashMap<String, ArrayList<DataPoint>> returnMap = new HashMap();
     returnMap.put("mask", new ArrayList());
@@ -105,73 +138,60 @@ public final class CheckInStats {
     returnMap.put("line", new ArrayList());
     returnMap.put("busy", new ArrayList());
 
-    boolean endDay;
-    int ratingNum = 0;
-
-    for (; ratingNum < checkInCount - 1; ratingNum++) {
-
-      // Current rating entity.
-      Entity ratingEntity = ratingEntities.get(ratingNum);
+    for (Entity ratingDay : new StoreDatastoreHandler(storeId).getRatingDays()) {
 
       // Add to cumulative sums.
-      busySum += (double) ratingEntity.getProperty("busy");
-      lineSum += (double) ratingEntity.getProperty("line");
-      hygieneSum += (double) ratingEntity.getProperty("hygiene");
-      maskSum += (double) ratingEntity.getProperty("mask");
-
-      Entity nextEntity = ratingEntities.get(ratingNum + 1);
-      Date currentDate = (Date) ratingEntity.getProperty("Date");
-      Date nextDate = (Date) nextEntity.getProperty("Date");
-
-      // Check if next entitiy is apart of the same day.
-      int r1day = currentDate.getDay();
-      int r2day = nextDate.getDay();
-      endDay = !(r1day == r2day);
-
-      // If end of day, get accumulated ratings and add them.
-      if (endDay) {
-        ArrayList<DataPoint> maskRatings = returnMap.get("mask");
-        maskRatings.add(new DataPoint(maskSum / (ratingNum + 1.0), currentDate));
-        ArrayList<DataPoint> hygieneRatings = returnMap.get("hygiene");
-        hygieneRatings.add(new DataPoint(hygieneSum / (ratingNum + 1.0), currentDate));
-        ArrayList<DataPoint> lineRatings = returnMap.get("line");
-        lineRatings.add(new DataPoint(lineSum / (ratingNum + 1.0), currentDate));
-        ArrayList<DataPoint> busyRatings = returnMap.get("busy");
-        busyRatings.add(new DataPoint(busySum / (ratingNum + 1.0), currentDate));
-      }
+      countSum += (long) ratingDay.getProperty("checkInCount");
+      busySum += (double) ratingDay.getProperty("busySum");
+      lineSum += (double) ratingDay.getProperty("lineSum");
+      hygieneSum += (double) ratingDay.getProperty("hygieneSum");
+      maskSum += (double) ratingDay.getProperty("maskSum");
+
+      // Get accumulated ratings and add them.
+      Date currentDate = (Date) ratingDay.getProperty("Date");
+      returnMap.get("mask").add(new DataPoint(maskSum / countSum, currentDate));
+      returnMap.get("hygiene").add(new DataPoint(hygieneSum / countSum, currentDate));
+      returnMap.get("line").add(new DataPoint(lineSum / countSum, currentDate));
+      returnMap.get("busy").add(new DataPoint(busySum / countSum, currentDate));
     }
 
-    // Check the final rating.
-    if (checkInCount != 0) {
-
-      // Get rating entity.
-      Entity ratingEntity = ratingEntities.get(ratingNum);
+    return returnMap;
+  }
 
-      // Add to cumulative sums.
-      busySum += (double) ratingEntity.getProperty("busy");
-      lineSum += (double) ratingEntity.getProperty("line");
-      hygieneSum += (double) ratingEntity.getProperty("hygiene");
-      maskSum += (double) ratingEntity.getProperty("mask");
-
-      // Get date property.
-      Date currentDate = (Date) ratingEntity.getProperty("Date");
-
-      // Get accumulated ratings and add them
-      ArrayList<DataPoint> maskRatings = returnMap.get("mask");
-      maskRatings.add(new DataPoint(maskSum / (ratingNum + 1.0), currentDate));
-      ArrayList<DataPoint> hygieneRatings = returnMap.get("hygiene");
-      hygieneRatings.add(new DataPoint(hygieneSum / (ratingNum + 1.0), currentDate));
-      ArrayList<DataPoint> lineRatings = returnMap.get("line");
-      lineRatings.add(new DataPoint(lineSum / (ratingNum + 1.0), currentDate));
-      ArrayList<DataPoint> busyRatings = returnMap.get("busy");
-      busyRatings.add(new DataPoint(busySum / (ratingNum + 1.0), currentDate));
-    }
+  /**
+   * Returns the check in score of recent ratings from the decayed sums, decayed by the elapsed
+   * time and smoothed toward the default score.
+   */
+  private static double getDecayedScore(Entity storeEntity, long elapsedMillis) {
+    double factor = StoreDatastoreHandler.getDecayFactor(elapsedMillis);
+    return BUSY_WEIGHT * getDecayedAverage(storeEntity, "busy", factor)
+        + LINE_WEIGHT * getDecayedAverage(storeEntity, "line", factor)
+        + HYGIENE_WEIGHT * getDecayedAverage(storeEntity, "hygiene", factor)
+        + MASK_WEIGHT * getDecayedAverage(storeEntity, "mask", factor);
+  }
 
-    return returnMap;
+  /** Returns the decayed average of a category, counting the default score as prior check ins. */
+  private static double getDecayedAverage(Entity storeEntity, String category, double factor) {
+    double count = (double) storeEntity.getProperty("decayedCount") * factor + PRIOR_CHECK_INS;
+    double sum = (double) storeEntity.getProperty(category + "Decayed") * factor;
+    return (sum + 5.0 * PRIOR_CHECK_INS) / count;
   }
 
   /** Returns check in score based on all the categories. */
   public double getCheckInScore() {
     return BUSY_WEIGHT * busy + LINE_WEIGHT * line + HYGIENE_WEIGHT * hygiene + MASK_WEIGHT * masks;
   }
+
+  /** Returns check in score weighted toward recent ratings, 5.0 if there are none. */
+  public double getCurrentCheckInScore() {
+    return currentCheckInScore;
+  }
+
+  /**
+   * Returns the version of a response built from the stats: the stored count and sums, when the
+   * decayed sums were stored, and the start of the period the current score is decayed to.
+   */
+  public List<Object> getVersions() {
+    return Arrays.asList(checkInCount, busy, line, hygiene, masks, decayedAt, decayedTo);
+  }
 }
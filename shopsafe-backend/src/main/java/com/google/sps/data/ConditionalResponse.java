@@ -0,0 +1,143 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/*
+ * Entity tags, conditional gets and gzip compression of the json responses. A tag is a hash of the
+ * versions of everything a response was built from, so it can be checked before the response is.
+ */
+public final class ConditionalResponse {
+
+  // Whether to compress responses for clients that accept gzip.
+  private static final boolean GZIP =
+      Boolean.parseBoolean(System.getProperty("shopsafe.response.gzip", "true"));
+
+  private ConditionalResponse() {}
+
+  /**
+   * Returns a strong entity tag for the response built from the given versions. Compressed and
+   * uncompressed responses get different tags.
+   */
+  public static String getEntityTag(HttpServletRequest request, Object... versions) {
+    StringBuilder key = new StringBuilder();
+    for (Object version : versions) {
+      key.append(version).append('\n');
+    }
+    byte[] hash;
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      hash = digest.digest(key.toString().getBytes(StandardCharsets.UTF_8));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+
+    // Half of the hash is plenty to tell versions apart.
+    StringBuilder tag = new StringBuilder("\"");
+    for (int i = 0; i < hash.length / 2; i++) {
+      tag.append(String.format("%02x", hash[i]));
+    }
+    return tag.append(acceptsGzip(request) ? "-gzip\"" : "\"").toString();
+  }
+
+  /**
+   * If the client already has the response with the entity tag, send not modified and return
+   * true, then nothing else should be sent.
+   */
+  public static boolean isNotModified(
+      HttpServletRequest request, HttpServletResponse response, String entityTag) {
+    String ifNoneMatch = request.getHeader("If-None-Match");
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    for (String candidate : ifNoneMatch.split(",")) {
+      candidate = candidate.trim();
+
+      // Conditional gets use weak comparison, so the weak prefix is ignored.
+      if (candidate.startsWith("W/")) {
+        candidate = candidate.substring(2);
+      }
+      if (candidate.equals("*") || candidate.equals(entityTag)) {
+        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        response.setHeader("ETag", entityTag);
+        response.setHeader("Vary", "Accept-Encoding");
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns a UTF-8 writer for the response body with the entity tag, if not null, compressed if
+   * the client accepts gzip. The writer must be closed to finish the response.
+   */
+  public static Writer openWriter(
+      HttpServletRequest request, HttpServletResponse response, String entityTag)
+      throws IOException {
+    response.setCharacterEncoding("UTF-8");
+    if (entityTag != null) {
+      response.setHeader("ETag", entityTag);
+    }
+    response.setHeader("Vary", "Accept-Encoding");
+    if (!acceptsGzip(request)) {
+      return response.getWriter();
+    }
+    response.setHeader("Content-Encoding", "gzip");
+    return new OutputStreamWriter(
+        new GZIPOutputStream(response.getOutputStream()), StandardCharsets.UTF_8);
+  }
+
+  /** Returns whether gzip is enabled and accepted, by name or by wildcard, in Accept-Encoding. */
+  private static boolean acceptsGzip(HttpServletRequest request) {
+    String acceptEncoding = request.getHeader("Accept-Encoding");
+    if (!GZIP || acceptEncoding == null) {
+      return false;
+    }
+
+    // A quality of zero refuses a coding, gzip by name takes precedence over the wildcard.
+    Boolean gzip = null;
+    Boolean wildcard = null;
+    for (String coding : acceptEncoding.split(",")) {
+      String[] parts = coding.split(";");
+      boolean accepted = true;
+      for (int i = 1; i < parts.length; i++) {
+        String parameter = parts[i].trim();
+        if (parameter.startsWith("q=")) {
+          try {
+            accepted = Double.parseDouble(parameter.substring(2)) > 0;
+          } catch (NumberFormatException e) {
+            accepted = false;
+          }
+        }
+      }
+      String name = parts[0].trim();
+      if (name.equalsIgnoreCase("gzip")) {
+        gzip = accepted;
+      } else if (name.equals("*")) {
+        wildcard = accepted;
+      }
+    }
+    return gzip != null ? gzip : Boolean.TRUE.equals(wildcard);
+  }
+}
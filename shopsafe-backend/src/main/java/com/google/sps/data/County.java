@@ -14,16 +14,15 @@
 
 package com.google.sps.data;
 
-import com.opencsv.CSVReader;
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.InputStreamReader;
-import java.net.URL;
-import org.json.JSONObject;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /** Class contains the name, state, and fips of a county. */
 public class County {
 
+  private static final Logger logger = Logger.getLogger(County.class.getName());
+
   // FCC api url for county information and file locations.
   protected static final int COUNTY_COUNT = 3142;
   protected static final String FCC_BASE_URL = "https://geo.fcc.gov/api/census/area?lat=";
@@ -33,6 +32,14 @@ public class County {
   protected static final String PERCENTILE_LOCATION_BACKUP =
       "WEB-INF/classes/county_percentile.csv";
   protected static final String POPULATION_LOCATION = "WEB-INF/classes/county_population.csv";
+  protected static final String BOUNDARIES_LOCATION = "WEB-INF/classes/county_boundaries.csv";
+
+  // Whether to call the FCC api for locations that are not in the county boundaries.
+  protected static final boolean FCC_FALLBACK =
+      Boolean.parseBoolean(System.getProperty("shopsafe.county.fccFallback", "true"));
+
+  // County boundaries, loaded once when the class is first used.
+  private static final CountyBoundaries BOUNDARIES = CountyBoundaries.load(BOUNDARIES_LOCATION);
 
   // Class properties of a county.
   protected String countyName;
@@ -60,97 +67,106 @@ public class County {
 
   /** Returns the county based on the coordinates of a store, or empty county if error. */
   public static County getCounty(Store store) {
+
+    // Find the county in the county boundaries, if a county contains the store.
+    County county = getBoundaryCounty(store);
+    if (county != null) {
+      return county;
+    }
+
+    // Otherwise, ask the FCC api if that is allowed.
+    return getFallbackCounty(store);
+  }
+
+  /** Returns the county whose boundaries contain the store, or null if there is none. */
+  public static County getBoundaryCounty(Store store) {
+    return BOUNDARIES.getCounty(store.getLatitude(), store.getLongitude());
+  }
+
+  /**
+   * Returns the county of a store outside the county boundaries from the FCC api, or empty county
+   * if that is not allowed or fails.
+   */
+  public static County getFallbackCounty(Store store) {
+    if (!FCC_FALLBACK) {
+      return new County("", "", "");
+    }
+    return getCountyFromFcc(store);
+  }
+
+  /**
+   * Returns a future for the county of a store outside the county boundaries from the FCC api,
+   * made on the background threads of the upstream client, or empty county if that is not allowed
+   * or fails.
+   */
+  public static CompletableFuture<County> getFallbackCountyAsync(Store store) {
+    if (!FCC_FALLBACK) {
+      return CompletableFuture.completedFuture(new County("", "", ""));
+    }
+    return UpstreamClient.getInstance()
+        .getAsync(getFccUrl(store), UpstreamJson::readFccCounty)
+        .exceptionally(
+            e -> {
+
+              // If error, log error and return empty county object
+              logger.log(Level.SEVERE, "Failed to get the county from the FCC API.", e);
+              return new County("", "", "");
+            });
+  }
+
+  /** Returns the FCC api url for the county of a store. */
+  private static String getFccUrl(Store store) {
+    return FCC_BASE_URL + store.getLatitude() + "&lon=" + store.getLongitude() + FCC_END_URL;
+  }
+
+  /** Returns the county of a store from the FCC api, or empty county if error. */
+  private static County getCountyFromFcc(Store store) {
     try {
 
-      // Read response of call to FCC API given lat and lng.
-      URL fccUrl =
-          new URL(
-              FCC_BASE_URL + store.getLatitude() + "&lon=" + store.getLongitude() + FCC_END_URL);
-      BufferedReader reader = new BufferedReader(new InputStreamReader(fccUrl.openStream()));
-
-      // Store response in json, by reading each line.
-      StringBuilder json = new StringBuilder();
-      String line;
-      while ((line = reader.readLine()) != null) {
-        json.append(line);
-      }
-      reader.close();
-
-      // Convert json to json object with just the first result.
-      JSONObject result = new JSONObject(new String(json)).getJSONArray("results").getJSONObject(0);
-
-      // Return county using strings from the results.
-      return new County(
-          result.getString("county_name"),
-          result.getString("state_name"),
-          result.getString("county_fips"));
+      // Read the county from the response of call to FCC API given lat and lng.
+      return UpstreamClient.getInstance().get(getFccUrl(store), UpstreamJson::readFccCounty);
     } catch (Exception e) {
 
       // If error, log error and return empty county object
-      e.printStackTrace();
+      logger.log(Level.SEVERE, "Failed to get the county from the FCC API.", e);
       return new County("", "", "");
     }
   }
 
-  /** Get a county score based on the county percentile csv file. */
+  /** Get a county score based on the county percentile csv files. */
   public double getCountyScore() {
-    try {
+    CountyTables tables = CountyTables.getInstance();
+    int fips = CountyTables.parseFips(countyFips);
 
-      // See if fips in the updated csv file, if so, return the score.
-      CSVReader reader = new CSVReader(new FileReader(PERCENTILE_LOCATION_UPDATED));
-      String[] nextLine = reader.readNext();
-      while ((nextLine = reader.readNext()) != null) {
-        if (Integer.parseInt(countyFips) == Integer.parseInt(nextLine[0])) {
-          return Double.parseDouble(nextLine[1]) * 10;
-        }
-      }
-
-      // See if fips in the backup csv file, if so, return the score.
-      reader = new CSVReader(new FileReader(PERCENTILE_LOCATION_BACKUP));
-      nextLine = reader.readNext();
-      while ((nextLine = reader.readNext()) != null) {
-        if (Integer.parseInt(countyFips) == Integer.parseInt(nextLine[0])) {
-          System.out.println("Using backup score for " + countyName + ", " + stateName);
-          return Double.parseDouble(nextLine[1]) * 10;
-        }
-      }
-
-      // Otherwise, log failure and return 5.0.
-      System.out.println("Unable to get the score for " + countyName + ", " + stateName);
-      return 5.0;
-    } catch (Exception e) {
+    // See if fips in the updated percentiles, if so, return the score.
+    double percentile = tables.getPercentile(fips);
+    if (!Double.isNaN(percentile)) {
+      return percentile * 10;
+    }
 
-      // If there is an exception, send error message and return 5.0.
-      e.printStackTrace();
-      System.out.println(
-          "An error occured while getting the score for " + countyName + ", " + stateName);
-      return 5.0;
+    // See if fips in the backup percentiles, if so, return the score.
+    percentile = tables.getBackupPercentile(fips);
+    if (!Double.isNaN(percentile)) {
+      logger.warning("Using backup score for " + countyName + ", " + stateName);
+      return percentile * 10;
     }
+
+    // Otherwise, log failure and return 5.0.
+    logger.warning("Unable to get the score for " + countyName + ", " + stateName);
+    return 5.0;
   }
 
   /** Given a county, find the population using the population csv file. */
   public long getCountyPopulationFromCsv() {
-    try {
 
-      // See if fips in the csv file, if so, return the population.
-      CSVReader reader = new CSVReader(new FileReader(POPULATION_LOCATION));
-      String[] nextLine = reader.readNext();
-      while ((nextLine = reader.readNext()) != null) {
-        if (Integer.parseInt(countyFips) == Integer.parseInt(nextLine[3])) {
-          return Long.parseLong(nextLine[2]);
-        }
-      }
-
-      // Otherwise, print error message and return 0.
-      System.out.println("Unable to get population for " + countyName + ", " + stateName);
-      return 0;
-    } catch (Exception e) {
-
-      // If there is an exception, log error, print error message, and return 0.
-      e.printStackTrace();
-      System.out.println(
-          "An error occured while getting the population for " + countyName + ", " + stateName);
-      return 0;
+    // See if fips in the populations, if so, return the population.
+    long population = CountyTables.getInstance().getPopulation(CountyTables.parseFips(countyFips));
+    if (population >= 0) {
+      return population;
     }
+
+    // Otherwise, log error message and return 0.
+    logger.warning("Unable to get population for " + countyName + ", " + stateName);
+    return 0;
   }
 }
@@ -0,0 +1,249 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.opencsv.CSVReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ * In memory index of county boundary polygons, used to find the county of a location without
+ * calling the FCC API. The csv file has a header row and one row per polygon ring:
+ * county_fips,county_name,state_name,"lng lat,lng lat,..."
+ * A county may have several rings, holes are handled by the even-odd rule.
+ */
+public final class CountyBoundaries {
+
+  private static final Logger logger = Logger.getLogger(CountyBoundaries.class.getName());
+
+  // Size in degrees of a cell of the uniform grid used to find candidate counties.
+  private static final double CELL_DEGREES = 0.5;
+
+  // Counties and their rings, with coordinates stored as lng, lat pairs.
+  private final County[] counties;
+  private final double[][][] rings;
+  private final double[][] bounds;
+
+  // Uniform grid over all the counties, each cell lists the counties whose bounds overlap it.
+  private final double minLongitude;
+  private final double minLatitude;
+  private final int columns;
+  private final int rows;
+  private final int[][] cells;
+
+  private CountyBoundaries(County[] counties, double[][][] rings) {
+    this.counties = counties;
+    this.rings = rings;
+    this.bounds = new double[counties.length][];
+
+    // Find the bounds of each county and of all counties together.
+    double minLng = Double.MAX_VALUE;
+    double minLat = Double.MAX_VALUE;
+    double maxLng = -Double.MAX_VALUE;
+    double maxLat = -Double.MAX_VALUE;
+    for (int i = 0; i < counties.length; i++) {
+      bounds[i] = getBounds(rings[i]);
+      minLng = Math.min(minLng, bounds[i][0]);
+      minLat = Math.min(minLat, bounds[i][1]);
+      maxLng = Math.max(maxLng, bounds[i][2]);
+      maxLat = Math.max(maxLat, bounds[i][3]);
+    }
+
+    // If there are no counties, use an empty grid.
+    if (counties.length == 0) {
+      this.minLongitude = 0;
+      this.minLatitude = 0;
+      this.columns = 0;
+      this.rows = 0;
+      this.cells = new int[0][];
+      return;
+    }
+    this.minLongitude = minLng;
+    this.minLatitude = minLat;
+    this.columns = (int) ((maxLng - minLng) / CELL_DEGREES) + 1;
+    this.rows = (int) ((maxLat - minLat) / CELL_DEGREES) + 1;
+
+    // Add every county to the cells its bounds overlap.
+    List<List<Integer>> cellLists = new ArrayList<>(columns * rows);
+    for (int i = 0; i < columns * rows; i++) {
+      cellLists.add(new ArrayList<Integer>());
+    }
+    for (int i = 0; i < counties.length; i++) {
+      int firstColumn = getColumn(bounds[i][0]);
+      int firstRow = getRow(bounds[i][1]);
+      int lastColumn = getColumn(bounds[i][2]);
+      int lastRow = getRow(bounds[i][3]);
+      for (int row = firstRow; row <= lastRow; row++) {
+        for (int column = firstColumn; column <= lastColumn; column++) {
+          cellLists.get(row * columns + column).add(i);
+        }
+      }
+    }
+
+    // Store the cells as primitive arrays.
+    this.cells = new int[cellLists.size()][];
+    for (int i = 0; i < cellLists.size(); i++) {
+      List<Integer> cellList = cellLists.get(i);
+      cells[i] = new int[cellList.size()];
+      for (int j = 0; j < cellList.size(); j++) {
+        cells[i][j] = cellList.get(j);
+      }
+    }
+  }
+
+  /** Returns the number of counties in the index. */
+  public int size() {
+    return counties.length;
+  }
+
+  /** Returns the county containing the location, or null if no county contains it. */
+  public County getCounty(double latitude, double longitude) {
+    if (counties.length == 0) {
+      return null;
+    }
+
+    // Find the grid cell of the location, if it is inside the grid.
+    int column = (int) Math.floor((longitude - minLongitude) / CELL_DEGREES);
+    int row = (int) Math.floor((latitude - minLatitude) / CELL_DEGREES);
+    if (column < 0 || column >= columns || row < 0 || row >= rows) {
+      return null;
+    }
+
+    // Check the bounds, then the polygons, of each candidate county.
+    for (int index : cells[row * columns + column]) {
+      double[] countyBounds = bounds[index];
+      if (longitude < countyBounds[0]
+          || latitude < countyBounds[1]
+          || longitude > countyBounds[2]
+          || latitude > countyBounds[3]) {
+        continue;
+      }
+      if (contains(rings[index], latitude, longitude)) {
+        return counties[index];
+      }
+    }
+    return null;
+  }
+
+  /** Load the boundaries from a csv file, or return an empty index if it can't be read. */
+  public static CountyBoundaries load(String location) {
+    if (!new File(location).exists()) {
+      logger.warning("No county boundaries at " + location + ", the FCC API will be used.");
+      return new CountyBoundaries(new County[0], new double[0][][]);
+    }
+    try (Reader reader =
+        new InputStreamReader(new FileInputStream(location), StandardCharsets.UTF_8)) {
+      CountyBoundaries boundaries = load(reader);
+      logger.info("Loaded " + boundaries.size() + " county boundaries from " + location);
+      return boundaries;
+    } catch (Exception e) {
+
+      // If there is an error, log it and use an empty index.
+      logger.log(Level.SEVERE, "Failed to load county boundaries, the FCC API will be used.", e);
+      return new CountyBoundaries(new County[0], new double[0][][]);
+    }
+  }
+
+  /** Load the boundaries from csv rows, see the class comment for the format. */
+  public static CountyBoundaries load(Reader reader) throws IOException {
+
+    // Group the rings of each county by fips, keeping the first name seen.
+    Map<String, County> countyMap = new LinkedHashMap<>();
+    Map<String, List<double[]>> ringMap = new LinkedHashMap<>();
+    CSVReader csvReader = new CSVReader(reader);
+    String[] nextLine = csvReader.readNext();
+    while ((nextLine = csvReader.readNext()) != null) {
+      String fips = nextLine[0];
+      if (!countyMap.containsKey(fips)) {
+        countyMap.put(fips, new County(nextLine[1], nextLine[2], fips));
+        ringMap.put(fips, new ArrayList<double[]>());
+      }
+      ringMap.get(fips).add(parseRing(nextLine[3]));
+    }
+
+    // Convert the groups to arrays indexed by county.
+    County[] counties = countyMap.values().toArray(new County[0]);
+    double[][][] rings = new double[counties.length][][];
+    for (int i = 0; i < counties.length; i++) {
+      rings[i] = ringMap.get(counties[i].getCountyFips()).toArray(new double[0][]);
+    }
+    return new CountyBoundaries(counties, rings);
+  }
+
+  /** Parse a ring of "lng lat" points separated by commas into lng, lat pairs. */
+  private static double[] parseRing(String ring) {
+    String[] points = ring.trim().split(",");
+    double[] coordinates = new double[points.length * 2];
+    for (int i = 0; i < points.length; i++) {
+      String[] point = points[i].trim().split("\\s+");
+      coordinates[2 * i] = Double.parseDouble(point[0]);
+      coordinates[2 * i + 1] = Double.parseDouble(point[1]);
+    }
+    return coordinates;
+  }
+
+  /** Returns the minimum lng, minimum lat, maximum lng and maximum lat of the rings. */
+  private static double[] getBounds(double[][] countyRings) {
+    double[] countyBounds = {
+      Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE
+    };
+    for (double[] ring : countyRings) {
+      for (int i = 0; i < ring.length; i += 2) {
+        countyBounds[0] = Math.min(countyBounds[0], ring[i]);
+        countyBounds[1] = Math.min(countyBounds[1], ring[i + 1]);
+        countyBounds[2] = Math.max(countyBounds[2], ring[i]);
+        countyBounds[3] = Math.max(countyBounds[3], ring[i + 1]);
+      }
+    }
+    return countyBounds;
+  }
+
+  /** Even-odd ray casting test of a location against all the rings of a county. */
+  private static boolean contains(double[][] countyRings, double latitude, double longitude) {
+    boolean inside = false;
+    for (double[] ring : countyRings) {
+      int count = ring.length / 2;
+      for (int i = 0, j = count - 1; i < count; j = i++) {
+        double lngI = ring[2 * i];
+        double latI = ring[2 * i + 1];
+        double lngJ = ring[2 * j];
+        double latJ = ring[2 * j + 1];
+        if ((latI > latitude) != (latJ > latitude)
+            && longitude < (lngJ - lngI) * (latitude - latI) / (latJ - latI) + lngI) {
+          inside = !inside;
+        }
+      }
+    }
+    return inside;
+  }
+
+  private int getColumn(double longitude) {
+    return Math.min(columns - 1, (int) ((longitude - minLongitude) / CELL_DEGREES));
+  }
+
+  private int getRow(double latitude) {
+    return Math.min(rows - 1, (int) ((latitude - minLatitude) / CELL_DEGREES));
+  }
+}
@@ -22,24 +22,35 @@ import com.google.cloud.bigquery.JobId;
 import com.google.cloud.bigquery.JobInfo;
 import com.google.cloud.bigquery.QueryJobConfiguration;
 import com.opencsv.CSVReader;
+import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /** Class handles updating the couny percentiles. */
 public class CountyPercentile implements Comparable<CountyPercentile> {
 
+  private static final Logger logger = Logger.getLogger(CountyPercentile.class.getName());
+
   // Constants used for finding length and reading and writing files.
   private static final int COUNTY_COUNT = 3142;
   private static final String PERCENTILE_LOCATION = "WEB-INF/classes/county_percentile_updated.csv";
   private static final String POPULATION_LOCATION = "WEB-INF/classes/county_population.csv";
 
-  // Static date used to check if county percentile needs to be updated.
-  private static String date = LocalDate.of(2020, 7, 22).toString();
+  // Check for new percentiles in the background, they are recomputed once a day.
+  private static final long REFRESH_MINUTES =
+      Long.getLong("shopsafe.percentile.refreshMinutes", 60);
+  private static final ScheduledRefresher refresher =
+      new ScheduledRefresher(
+          "county-percentile", REFRESH_MINUTES, CountyPercentile::updatePercentiles);
 
   // CountyPercentile properties
   private String countyFips;
@@ -68,40 +79,55 @@ public class CountyPercentile implements Comparable<CountyPercentile> {
     return getActiveCasesPerCapita().compareTo(countyPerentile.getActiveCasesPerCapita());
   }
 
-  /** Update the county percentile csv file. */
-  public static void updatePercentileFile() {
+  /** Start updating the county percentiles in the background, if not already started. */
+  public static void startRefresher() {
+    refresher.start();
+  }
+
+  /** Stop updating the county percentiles in the background. */
+  public static void stopRefresher() {
+    refresher.stop();
+  }
+
+  /** Update the county percentiles and csv file, if they are not from today. */
+  public static void updatePercentiles() {
 
-    // If the date is currently correct return it, otherwise update to today.
-    if (date.equals(LocalDate.now().toString())) {
+    // If the percentiles are from today return, otherwise update to today.
+    LocalDate date = LocalDate.now();
+    if (date.equals(CountyTables.getInstance().getPercentileDate())) {
       return;
     }
-    CountyPercentile.date = LocalDate.now().toString();
-    System.out.println("Updating County Percentile csv file to: " + date);
+    logger.info("Updating County Percentiles to: " + date);
 
     // Get the population of all counties.
     List<String[]> populations = readPopulationCsv();
 
     // If not all county populations are read, log error and return.
     if (populations.size() < COUNTY_COUNT) {
-      System.out.println("Failed to read all populations, the previous stats are being used.");
+      logger.warning("Failed to read all populations, the previous stats are being used.");
       return;
     }
 
     // Get all the active cases per capita, value used for percentiles.
-    List<CountyPercentile> countyPercentiles = getCountyPercentiles(populations);
+    List<CountyPercentile> countyPercentiles = getCountyPercentiles(populations, date);
 
     // If there are no counties to be updated from bigquery, log error and return.
     if (countyPercentiles.size() == 0) {
-      System.out.println(
-          "Failed to update any county percentiles, the previous stats are being used.");
+      logger.warning("Failed to update any county percentiles, the previous stats are being used.");
       return;
     }
 
-    // Sort countyPercentile using special comparison.
+    // Sort countyPercentile using special comparison, and rank them.
     Collections.sort(countyPercentiles);
+    double[] ranks = getPercentileRanks(countyPercentiles);
 
-    // Rewrite the percentile csv file.
-    writePercentileCsv(countyPercentiles);
+    // Rewrite the percentile csv file, then swap in the new percentiles.
+    writePercentileCsv(countyPercentiles, ranks);
+    int[] fipsCodes = new int[countyPercentiles.size()];
+    for (int i = 0; i < fipsCodes.length; i++) {
+      fipsCodes[i] = CountyTables.parseFips(countyPercentiles.get(i).getCountyFips());
+    }
+    CountyTables.publishPercentiles(fipsCodes, ranks, date);
   }
 
   /** Read the county population csv file. */
@@ -120,9 +146,8 @@ public class CountyPercentile implements Comparable<CountyPercentile> {
       }
     } catch (Exception e) {
 
-      // If there is an error, report it and print error.
-      e.printStackTrace();
-      System.out.println("An error occured while reading the county populations.");
+      // If there is an error, log it.
+      logger.log(Level.SEVERE, "An error occured while reading the county populations.", e);
     }
 
     // Return the populations.
@@ -130,7 +155,8 @@ public class CountyPercentile implements Comparable<CountyPercentile> {
   }
 
   /** Get the cases per capita for each county, which will be used for percentiles. */
-  public static List<CountyPercentile> getCountyPercentiles(List<String[]> populations) {
+  public static List<CountyPercentile> getCountyPercentiles(
+      List<String[]> populations, LocalDate date) {
 
     // Create list of CountyPercentiles to add to.
     List<CountyPercentile> countyPercentiles = new ArrayList<CountyPercentile>();
@@ -187,54 +213,62 @@ public class CountyPercentile implements Comparable<CountyPercentile> {
       return countyPercentiles;
     } catch (Exception e) {
 
-      // If there is an error, report it, print error, and return an empty list.
-      e.printStackTrace();
-      System.out.println("An error occured while getting projections from BigQuery.");
+      // If there is an error, log it and return an empty list.
+      logger.log(Level.SEVERE, "An error occured while getting projections from BigQuery.", e);
       return new ArrayList<CountyPercentile>();
     }
   }
 
-  /** Rewrite the percentile csv file using newer statistics. */
-  public static void writePercentileCsv(List<CountyPercentile> countyPercentiles) {
+  /** Returns the percentile ranks of sorted county percentiles, stepping down for each value. */
+  public static double[] getPercentileRanks(List<CountyPercentile> countyPercentiles) {
+    double[] ranks = new double[countyPercentiles.size()];
+    double latestValue = 0.0;
+    double latestPercentile = 1.0;
+    for (int index = 0; index < ranks.length; index++) {
+
+      // Check if there is a need to update the latest value and percentile.
+      if (latestValue != countyPercentiles.get(index).getActiveCasesPerCapita()) {
+        latestPercentile = 1.0 - (Double.valueOf(index) / countyPercentiles.size());
+        latestValue = countyPercentiles.get(index).getActiveCasesPerCapita();
+      }
+      ranks[index] = latestPercentile;
+    }
+    return ranks;
+  }
+
+  /** Rewrite the percentile csv file using newer statistics and their ranks. */
+  public static void writePercentileCsv(List<CountyPercentile> countyPercentiles, double[] ranks) {
 
-    // Try to rewrite the county percentile file.
+    // Try to rewrite the county percentile file, by writing a new file and moving it into place.
+    File tempFile = new File(PERCENTILE_LOCATION + ".tmp");
     try {
 
-      FileWriter csvWriter = new FileWriter(PERCENTILE_LOCATION);
+      FileWriter csvWriter = new FileWriter(tempFile);
       csvWriter.append("county_fips_code");
       csvWriter.append(",");
       csvWriter.append("percentile_rank");
       csvWriter.append("\n");
 
-      // Loop through all county percentiles, stepping down for each new value.
-      double latestValue = 0.0;
-      double latestPercentile = 1.0;
-      int index = 0;
-      while (index < countyPercentiles.size()) {
-
-        // Check if there is a need to update the latest value and percentile.
-        if (latestValue != countyPercentiles.get(index).getActiveCasesPerCapita()) {
-          latestPercentile = 1.0 - (Double.valueOf(index) / countyPercentiles.size());
-          latestValue = countyPercentiles.get(index).getActiveCasesPerCapita();
-        }
-
-        // Write the new percentile value for each fips.
+      // Write the percentile value for each fips.
+      for (int index = 0; index < ranks.length; index++) {
         csvWriter.append(
-            countyPercentiles.get(index).getCountyFips() + "," + Double.toString(latestPercentile));
+            countyPercentiles.get(index).getCountyFips() + "," + Double.toString(ranks[index]));
         csvWriter.append("\n");
-
-        index += 1;
       }
 
-      // Close the writer and log success.
+      // Close the writer, replace the old file in one step so readers never see half a file.
       csvWriter.flush();
       csvWriter.close();
-      System.out.println("Updated: " + PERCENTILE_LOCATION);
+      Files.move(
+          tempFile.toPath(),
+          new File(PERCENTILE_LOCATION).toPath(),
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      logger.info("Updated: " + PERCENTILE_LOCATION);
     } catch (Exception e) {
 
-      // If there is an error, report it and print error.
-      e.printStackTrace();
-      System.out.println("Failed to update: " + PERCENTILE_LOCATION);
+      // If there is an error, log it.
+      logger.log(Level.SEVERE, "Failed to update: " + PERCENTILE_LOCATION, e);
     }
   }
 }
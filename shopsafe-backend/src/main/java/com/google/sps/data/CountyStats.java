@@ -54,4 +54,9 @@ public class CountyStats extends County {
   public ArrayList<DataPoint> getCovidData() {
     return covidData;
   }
+
+  /** Replace the cases over time, the list of the query results is shared and not changed. */
+  public void setCovidData(ArrayList<DataPoint> covidData) {
+    this.covidData = covidData;
+  }
 }
@@ -0,0 +1,180 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.opencsv.CSVReader;
+import java.io.File;
+import java.io.FileReader;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ * Immutable snapshot of the county percentile and population csv files, held in arrays indexed
+ * by fips code. The current snapshot is replaced as a whole when the files change.
+ */
+public final class CountyTables {
+
+  private static final Logger logger = Logger.getLogger(CountyTables.class.getName());
+
+  // Fips codes are five digits, so every county has a slot below this size.
+  static final int FIPS_LIMIT = 100000;
+
+  // The current snapshot, loaded when first used.
+  private static final AtomicReference<CountyTables> current = new AtomicReference<>();
+
+  // Percentiles are NaN and populations are -1 for counties that are not in the files.
+  private final double[] percentiles;
+  private final double[] backupPercentiles;
+  private final long[] populations;
+
+  // Date the updated percentiles were computed for, or null if there are none.
+  private final LocalDate percentileDate;
+
+  private CountyTables(
+      double[] percentiles,
+      double[] backupPercentiles,
+      long[] populations,
+      LocalDate percentileDate) {
+    this.percentiles = percentiles;
+    this.backupPercentiles = backupPercentiles;
+    this.populations = populations;
+    this.percentileDate = percentileDate;
+  }
+
+  /** Returns the current snapshot, loading it from the csv files if there is none yet. */
+  public static CountyTables getInstance() {
+    CountyTables tables = current.get();
+    if (tables == null) {
+      current.compareAndSet(null, load());
+      tables = current.get();
+    }
+    return tables;
+  }
+
+  /**
+   * Make a snapshot with new updated percentiles the current one, keeping the other tables. The
+   * fips codes and percentiles are matching arrays.
+   */
+  public static void publishPercentiles(int[] fipsCodes, double[] ranks, LocalDate date) {
+    double[] percentiles = new double[FIPS_LIMIT];
+    Arrays.fill(percentiles, Double.NaN);
+    for (int i = 0; i < fipsCodes.length; i++) {
+      if (isValidFips(fipsCodes[i])) {
+        percentiles[fipsCodes[i]] = ranks[i];
+      }
+    }
+    CountyTables tables = getInstance();
+    current.set(new CountyTables(percentiles, tables.backupPercentiles, tables.populations, date));
+  }
+
+  public LocalDate getPercentileDate() {
+    return percentileDate;
+  }
+
+  /** Returns the updated percentile of a county, or NaN if it is not known. */
+  public double getPercentile(int fips) {
+    return isValidFips(fips) ? percentiles[fips] : Double.NaN;
+  }
+
+  /** Returns the backup percentile of a county, or NaN if it is not known. */
+  public double getBackupPercentile(int fips) {
+    return isValidFips(fips) ? backupPercentiles[fips] : Double.NaN;
+  }
+
+  /** Returns the population of a county, or -1 if it is not known. */
+  public long getPopulation(int fips) {
+    return isValidFips(fips) ? populations[fips] : -1;
+  }
+
+  /** Returns the fips code as an int, or -1 if it is not a number. */
+  public static int parseFips(String fips) {
+    try {
+      return Integer.parseInt(fips);
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private static boolean isValidFips(int fips) {
+    return fips >= 0 && fips < FIPS_LIMIT;
+  }
+
+  /** Read all the csv files into a new snapshot. */
+  private static CountyTables load() {
+    double[] percentiles = readPercentiles(County.PERCENTILE_LOCATION_UPDATED);
+    double[] backupPercentiles = readPercentiles(County.PERCENTILE_LOCATION_BACKUP);
+
+    // Read the populations, fips is the fourth column and population the third.
+    long[] populations = new long[FIPS_LIMIT];
+    Arrays.fill(populations, -1);
+    try {
+      CSVReader reader = new CSVReader(new FileReader(County.POPULATION_LOCATION));
+      String[] nextLine = reader.readNext();
+      while ((nextLine = reader.readNext()) != null) {
+        int fips = parseFips(nextLine[3]);
+        if (isValidFips(fips)) {
+          populations[fips] = Long.parseLong(nextLine[2]);
+        }
+      }
+      reader.close();
+    } catch (Exception e) {
+
+      // If there is an error, log it.
+      logger.log(Level.SEVERE, "An error occured while reading: " + County.POPULATION_LOCATION, e);
+    }
+
+    // The updated percentiles are as new as the file they were read from.
+    File percentileFile = new File(County.PERCENTILE_LOCATION_UPDATED);
+    LocalDate percentileDate =
+        percentileFile.exists()
+            ? Instant.ofEpochMilli(percentileFile.lastModified())
+                .atZone(ZoneId.systemDefault())
+                .toLocalDate()
+            : null;
+    return new CountyTables(percentiles, backupPercentiles, populations, percentileDate);
+  }
+
+  /** Read a percentile csv file, fips is the first column and percentile the second. */
+  private static double[] readPercentiles(String location) {
+    double[] percentiles = new double[FIPS_LIMIT];
+    Arrays.fill(percentiles, Double.NaN);
+
+    // The updated file does not exist until it is first written, so a missing file is expected.
+    if (!new File(location).exists()) {
+      return percentiles;
+    }
+    try {
+      CSVReader reader = new CSVReader(new FileReader(location));
+      String[] nextLine = reader.readNext();
+      while ((nextLine = reader.readNext()) != null) {
+        int fips = parseFips(nextLine[0]);
+        if (isValidFips(fips)) {
+          percentiles[fips] = Double.parseDouble(nextLine[1]);
+        }
+      }
+      reader.close();
+    } catch (Exception e) {
+
+      // If there is an error, log it.
+      logger.log(Level.SEVERE, "An error occured while reading: " + location, e);
+    }
+    return percentiles;
+  }
+}
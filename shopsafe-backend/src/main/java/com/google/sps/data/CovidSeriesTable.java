@@ -0,0 +1,225 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.BigQueryOptions;
+import com.google.cloud.bigquery.FieldValueList;
+import com.google.cloud.bigquery.Job;
+import com.google.cloud.bigquery.JobId;
+import com.google.cloud.bigquery.JobInfo;
+import com.google.cloud.bigquery.QueryJobConfiguration;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ * The last week of USA facts cases and deaths for every county, loaded with one BigQuery job a
+ * day. Values are stored by column, with a row per county and a column per day of the date axis.
+ */
+public final class CovidSeriesTable {
+
+  private static final Logger logger = Logger.getLogger(CovidSeriesTable.class.getName());
+
+  // Number of days of data kept for each county.
+  private static final int DAYS = 7;
+
+  // Check for new data in the background, it is loaded once per data refresh.
+  private static final long REFRESH_MINUTES = Long.getLong("shopsafe.covid.refreshMinutes", 60);
+  private static final ScheduledRefresher refresher =
+      new ScheduledRefresher("covid-series", REFRESH_MINUTES, CovidSeriesTable::updateTable);
+
+  // The current table, or null until the first load succeeds.
+  private static final AtomicReference<CovidSeriesTable> current = new AtomicReference<>();
+
+  // Shared date axis, oldest first, and the row of each fips or -1 if it has no data.
+  private final LocalDate[] dates;
+  private final int[] rowByFips;
+
+  // Cases and deaths at row * DAYS + day, or -1 if the county has no value for that day.
+  private final long[] cases;
+  private final long[] deaths;
+
+  // Time in milliseconds after which newer data is expected.
+  private final long expiresAt;
+
+  private CovidSeriesTable(
+      LocalDate[] dates, int[] rowByFips, long[] cases, long[] deaths, long expiresAt) {
+    this.dates = dates;
+    this.rowByFips = rowByFips;
+    this.cases = cases;
+    this.deaths = deaths;
+    this.expiresAt = expiresAt;
+  }
+
+  /** Returns the current table, or null if it has not been loaded. */
+  public static CovidSeriesTable getInstance() {
+    return current.get();
+  }
+
+  /** Start loading the table in the background, if not already started. */
+  public static void startRefresher() {
+    refresher.start();
+  }
+
+  /** Stop loading the table in the background. */
+  public static void stopRefresher() {
+    refresher.stop();
+  }
+
+  /** Returns the most recent date in the table. */
+  public LocalDate getLatestDate() {
+    return dates[dates.length - 1];
+  }
+
+  /** Returns the stats of a county from the table, or null if the county is not in it. */
+  public QueryCovidStats getStats(String fips) {
+    int fipsCode = CountyTables.parseFips(fips);
+    if (fipsCode < 0 || fipsCode >= CountyTables.FIPS_LIMIT || rowByFips[fipsCode] < 0) {
+      return null;
+    }
+    int start = rowByFips[fipsCode] * DAYS;
+
+    // Add the cases of each day with data, the last one gives the current cases and deaths.
+    long latestCases = -1;
+    long latestDeaths = -1;
+    ArrayList<DataPoint> covidData = new ArrayList<>();
+    for (int day = 0; day < dates.length; day++) {
+      if (cases[start + day] < 0) {
+        continue;
+      }
+      latestCases = cases[start + day];
+      latestDeaths = deaths[start + day];
+      covidData.add(
+          new DataPoint(
+              latestCases, Date.from(dates[day].atStartOfDay(ZoneId.systemDefault()).toInstant())));
+    }
+    if (latestCases < 0) {
+      return null;
+    }
+    return new QueryCovidStats(latestCases, latestDeaths, false, covidData);
+  }
+
+  /** Load the table from BigQuery, if there is none yet or newer data is expected. */
+  public static void updateTable() {
+    CovidSeriesTable table = current.get();
+    if (table != null && System.currentTimeMillis() < table.expiresAt) {
+      return;
+    }
+    logger.info("Loading the county COVID-19 series from BigQuery.");
+    long expiresAt = QueryCovidStats.getNextRefreshMillis();
+
+    // Set up BigQuery service.
+    BigQuery bigquery =
+        BigQueryOptions.newBuilder().setProjectId("shopsafe-step-2020").build().getService();
+
+    // Prepare SQL query for the last week of cases and deaths of every county.
+    QueryJobConfiguration queryConfig =
+        QueryJobConfiguration.newBuilder(
+                "SELECT county_fips_code, date, confirmed_cases, deaths "
+                    + "FROM `bigquery-public-data.covid19_usafacts.summary` "
+                    + "WHERE date > DATE_SUB((SELECT MAX(date) "
+                    + "FROM `bigquery-public-data.covid19_usafacts.summary`), INTERVAL "
+                    + DAYS
+                    + " DAY) AND county_fips_code IS NOT NULL ORDER BY county_fips_code, date")
+            .setUseLegacySql(false)
+            .build();
+
+    // Create unique job id and job for the call to USA facts.
+    JobId jobId = JobId.of(UUID.randomUUID().toString());
+    Job queryJob = bigquery.create(JobInfo.newBuilder(queryConfig).setJobId(jobId).build());
+
+    // Read the rows, there is one for each county and day.
+    List<FieldValueList> rows = new ArrayList<>();
+    try {
+      queryJob = queryJob.waitFor();
+
+      // Check for and throw errors.
+      if (queryJob == null) {
+        throw new RuntimeException("Job no longer exists.");
+      } else if (queryJob.getStatus().getError() != null) {
+        throw new RuntimeException(queryJob.getStatus().getError().toString());
+      }
+      for (FieldValueList row : queryJob.getQueryResults().iterateAll()) {
+        rows.add(row);
+      }
+    } catch (Exception e) {
+
+      // If there is an error, report it, the previous table is kept.
+      logger.log(Level.SEVERE, "An error occured while loading the county COVID-19 series.", e);
+      return;
+    }
+
+    // If there are no rows, log error and keep the previous table.
+    if (rows.isEmpty()) {
+      logger.warning("No county COVID-19 series found, the previous stats are being used.");
+      return;
+    }
+    current.set(build(rows, expiresAt));
+    logger.info("Loaded the county COVID-19 series for " + rows.size() + " rows.");
+  }
+
+  /** Build a table from the query rows, ordered by fips and date. */
+  private static CovidSeriesTable build(List<FieldValueList> rows, long expiresAt) {
+
+    // Find the date axis, the most recent days in the rows.
+    TreeSet<LocalDate> dateSet = new TreeSet<>();
+    for (FieldValueList row : rows) {
+      dateSet.add(LocalDate.parse(row.get("date").getStringValue()));
+    }
+    while (dateSet.size() > DAYS) {
+      dateSet.pollFirst();
+    }
+    LocalDate[] dates = dateSet.toArray(new LocalDate[0]);
+
+    // Give each county a row, and fill in the value of each of its days.
+    int[] rowByFips = new int[CountyTables.FIPS_LIMIT];
+    Arrays.fill(rowByFips, -1);
+    long[] cases = new long[rows.size() * DAYS];
+    long[] deaths = new long[rows.size() * DAYS];
+    Arrays.fill(cases, -1);
+    Arrays.fill(deaths, -1);
+    int rowCount = 0;
+    for (FieldValueList row : rows) {
+      int fips = CountyTables.parseFips(row.get("county_fips_code").getStringValue());
+      int day = Arrays.binarySearch(dates, LocalDate.parse(row.get("date").getStringValue()));
+      if (fips < 0 || fips >= CountyTables.FIPS_LIMIT || day < 0) {
+        continue;
+      }
+      if (rowByFips[fips] < 0) {
+        rowByFips[fips] = rowCount;
+        rowCount += 1;
+      }
+      cases[rowByFips[fips] * DAYS + day] = row.get("confirmed_cases").getLongValue();
+      deaths[rowByFips[fips] * DAYS + day] = row.get("deaths").getLongValue();
+    }
+
+    // Trim the columns to the number of counties found.
+    return new CovidSeriesTable(
+        dates,
+        rowByFips,
+        Arrays.copyOf(cases, rowCount * DAYS),
+        Arrays.copyOf(deaths, rowCount * DAYS),
+        expiresAt);
+  }
+}
@@ -15,6 +15,7 @@
 package com.google.sps.data;
 
 import java.text.SimpleDateFormat;
+import java.time.LocalDate;
 import java.util.Date;
 
 /*Class to associate data with a date*/
@@ -41,6 +42,11 @@ public final class DataPoint {
     return date;
   }
 
+  /** Returns the day of the data point. */
+  public LocalDate getDay() {
+    return LocalDate.parse(date.substring(0, 10));
+  }
+
   @Override
   public String toString() {
     return "{value: " + value + ", " + " date: " + date + "}";
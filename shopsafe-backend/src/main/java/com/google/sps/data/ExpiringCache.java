@@ -0,0 +1,200 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/*
+ * Thread safe cache that holds at most a fixed number of entries, evicting the least recently
+ * used one when full, and drops entries once they are older than the time to live.
+ */
+public final class ExpiringCache<K, V> {
+
+  private final int maxSize;
+  private final long ttlMillis;
+  private final LongSupplier clock;
+  private final LinkedHashMap<K, Entry<V>> entries;
+
+  // Loads in flight, so concurrent misses for a key wait for the same load. Guarded by the cache
+  // lock with the entries, so a load is always either in flight or stored.
+  private final HashMap<K, CompletableFuture<V>> loads = new HashMap<>();
+
+  // Counters for how well the cache is doing.
+  private long hits = 0;
+  private long misses = 0;
+  private long evictions = 0;
+
+  /** ExpiringCache constructor, using the system clock. */
+  public ExpiringCache(int maxSize, long ttlMillis) {
+    this(maxSize, ttlMillis, System::currentTimeMillis);
+  }
+
+  /** ExpiringCache constructor, given a clock in milliseconds. */
+  public ExpiringCache(int maxSize, long ttlMillis, LongSupplier clock) {
+    this.maxSize = maxSize;
+    this.ttlMillis = ttlMillis;
+    this.clock = clock;
+
+    // Access order makes the eldest entry the least recently used one.
+    this.entries =
+        new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+            if (size() > ExpiringCache.this.maxSize) {
+              evictions++;
+              return true;
+            }
+            return false;
+          }
+        };
+  }
+
+  /** Returns the value for the key, or null if it is missing or expired. */
+  public synchronized V get(K key) {
+    Entry<V> entry = entries.get(key);
+    if (entry != null && entry.expiresAt <= clock.getAsLong()) {
+      entries.remove(key);
+      entry = null;
+    }
+    if (entry == null) {
+      misses++;
+      return null;
+    }
+    hits++;
+    return entry.value;
+  }
+
+  /**
+   * Returns the value for the key, loading and caching it if it is missing or expired. Concurrent
+   * misses for the same key share a single load. A null result is returned but not cached.
+   */
+  public V get(K key, Function<K, V> loader) {
+
+    // Check for the value and for a load of it together, then wait for that load if there is one.
+    CompletableFuture<V> load = new CompletableFuture<>();
+    CompletableFuture<V> existingLoad;
+    synchronized (this) {
+      V value = get(key);
+      if (value != null) {
+        return value;
+      }
+      existingLoad = loads.putIfAbsent(key, load);
+    }
+    if (existingLoad != null) {
+      return join(existingLoad);
+    }
+
+    // Otherwise, load the value, then store it and end the load together.
+    V value;
+    try {
+      value = loader.apply(key);
+    } catch (Throwable e) {
+      synchronized (this) {
+        loads.remove(key);
+      }
+      load.completeExceptionally(e);
+      throw e;
+    }
+    synchronized (this) {
+      if (value != null) {
+        put(key, value);
+      }
+      loads.remove(key);
+    }
+    load.complete(value);
+    return value;
+  }
+
+  /** Wait for a load, throwing the same exception the loading thread got. */
+  private static <V> V join(CompletableFuture<V> load) {
+    try {
+      return load.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      if (e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  /** Add the value for the key, expiring after the time to live. */
+  public synchronized void put(K key, V value) {
+    entries.put(key, new Entry<V>(value, clock.getAsLong() + ttlMillis));
+  }
+
+  /** Add the value for the key, expiring at the given time in milliseconds. */
+  public synchronized void put(K key, V value, long expiresAtMillis) {
+    entries.put(key, new Entry<V>(value, expiresAtMillis));
+  }
+
+  /** Remove the value for the key, if there is one. */
+  public synchronized void remove(K key) {
+    entries.remove(key);
+  }
+
+  /** Remove all values. */
+  public synchronized void clear() {
+    entries.clear();
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public synchronized long getHitCount() {
+    return hits;
+  }
+
+  public synchronized long getMissCount() {
+    return misses;
+  }
+
+  public synchronized long getEvictionCount() {
+    return evictions;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "{size: "
+        + entries.size()
+        + ", hits: "
+        + hits
+        + ", misses: "
+        + misses
+        + ", evictions: "
+        + evictions
+        + "}";
+  }
+
+  /** Cached value with the time it expires. */
+  private static final class Entry<V> {
+    private final V value;
+    private final long expiresAt;
+
+    private Entry(V value, long expiresAt) {
+      this.value = value;
+      this.expiresAt = expiresAt;
+    }
+  }
+}
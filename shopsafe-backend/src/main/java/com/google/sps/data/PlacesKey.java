@@ -0,0 +1,115 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ * The Places API key, shared by the servlets. It is read from the key file the first time it is
+ * needed and kept for a while, then read again, so a key changed in the file is picked up without
+ * a restart and without a thread watching it. When there is no key, the file is read again at
+ * most once a minute instead of on every request.
+ */
+public final class PlacesKey {
+
+  private static final Logger logger = Logger.getLogger(PlacesKey.class.getName());
+
+  private static final Path LOCATION = Paths.get("WEB-INF/classes/key.txt");
+
+  // How long a key that was read is used before the file is read again.
+  private static final long TTL_MILLIS =
+      TimeUnit.MINUTES.toMillis(Long.getLong("shopsafe.placesKey.ttlMinutes", 10));
+
+  // How long to wait before reading the file again when it had no key.
+  private static final long RETRY_MILLIS =
+      TimeUnit.SECONDS.toMillis(Long.getLong("shopsafe.placesKey.retrySeconds", 60));
+
+  // The current key and when to read the file again, or null until it is first read.
+  private static volatile Loaded current;
+
+  private PlacesKey() {}
+
+  /** Returns the current key, reading the key file if it is due, or null if there is none. */
+  public static String get() {
+    Loaded loaded = current;
+    if (loaded == null || System.currentTimeMillis() >= loaded.expiresAt) {
+      loaded = reload();
+    }
+    return loaded.key;
+  }
+
+  /**
+   * Read the first line of the key file and make it the current key, unless another request just
+   * did. If the file is missing or empty, as it may briefly be during a deploy, the previous key
+   * is kept and the file is read again after the retry delay.
+   */
+  private static synchronized Loaded reload() {
+    long now = System.currentTimeMillis();
+    Loaded loaded = current;
+    if (loaded != null && now < loaded.expiresAt) {
+      return loaded;
+    }
+    String previous = loaded == null ? null : loaded.key;
+    String key = read();
+    if (key == null) {
+      loaded = new Loaded(previous, now + RETRY_MILLIS);
+    } else {
+      if (previous != null && !previous.equals(key)) {
+        logger.info("Loaded a new Places API key.");
+      }
+      loaded = new Loaded(key, now + TTL_MILLIS);
+    }
+    current = loaded;
+    return loaded;
+  }
+
+  /** Returns the first line of the key file, or null if it is missing or empty. */
+  private static String read() {
+    try (BufferedReader reader = Files.newBufferedReader(LOCATION, StandardCharsets.UTF_8)) {
+      String key = reader.readLine();
+      if (key == null || key.trim().isEmpty()) {
+        logger.warning("The Places API key file is empty, keeping the previous key.");
+        return null;
+      }
+      return key.trim();
+    } catch (IOException e) {
+
+      // If error, log error, the previous key is kept.
+      logger.log(Level.SEVERE, "Failed to read the Places API key from: " + LOCATION, e);
+      return null;
+    }
+  }
+
+  /** A key, or null if there is none, and when the key file should be read again. */
+  private static final class Loaded {
+
+    private final String key;
+    private final long expiresAt;
+
+    private Loaded(String key, long expiresAt) {
+      this.key = key;
+      this.expiresAt = expiresAt;
+    }
+  }
+}
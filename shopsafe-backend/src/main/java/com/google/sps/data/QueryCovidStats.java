@@ -23,9 +23,13 @@ import com.google.cloud.bigquery.JobInfo;
 import com.google.cloud.bigquery.QueryJobConfiguration;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.UUID;
+import java.util.logging.Logger;
 
 /*
  * Similar to Query CovidStats but keep list of reported cases over 7
@@ -33,12 +37,21 @@ import java.util.UUID;
  */
 public class QueryCovidStats {
 
+  private static final Logger logger = Logger.getLogger(QueryCovidStats.class.getName());
+
+  // Hour of the day, in UTC, after which a new day of USA facts data is expected.
+  private static final int DATA_REFRESH_HOUR = Integer.getInteger("shopsafe.covid.refreshHour", 0);
+
+  // Successful query results by fips, kept until the next data refresh.
+  private static final ExpiringCache<String, QueryCovidStats> cache =
+      new ExpiringCache<>(Integer.getInteger("shopsafe.covid.cacheSize", 4000), 0);
+
   private long cases;
   private long deaths;
   private boolean failedQuery;
   private ArrayList<DataPoint> covidData;
 
-  private QueryCovidStats(
+  QueryCovidStats(
       long cases, long deaths, boolean failedQuery, ArrayList<DataPoint> covidData) {
     this.cases = cases;
     this.deaths = deaths;
@@ -86,6 +99,43 @@ public class QueryCovidStats {
   /** Return instance of QueryOverTime if possible, otherwise, return failure. */
   public static QueryCovidStats getCovidStatsFips(String fips) {
 
+    // If the county is in the daily loaded table, build the stats from memory.
+    CovidSeriesTable table = CovidSeriesTable.getInstance();
+    if (table != null) {
+      QueryCovidStats tableStats = table.getStats(fips);
+      if (tableStats != null) {
+        return tableStats;
+      }
+    }
+
+    // If the county was queried since the last data refresh, return the same stats.
+    QueryCovidStats cachedStats = cache.get(fips);
+    if (cachedStats != null) {
+      return cachedStats;
+    }
+
+    // Otherwise, query the stats and cache them until the next refresh, unless the query failed.
+    QueryCovidStats stats = queryCovidStatsFips(fips);
+    if (!stats.failedQuery()) {
+      cache.put(fips, stats, getNextRefreshMillis());
+    }
+    return stats;
+  }
+
+  /** Returns the time in milliseconds of the next USA facts data refresh. */
+  static long getNextRefreshMillis() {
+    ZonedDateTime now = ZonedDateTime.now(ZoneOffset.UTC);
+    ZonedDateTime refresh = LocalDate.now(ZoneOffset.UTC).atStartOfDay(ZoneOffset.UTC);
+    refresh = refresh.plusHours(DATA_REFRESH_HOUR);
+    if (!refresh.isAfter(now)) {
+      refresh = refresh.plusDays(1);
+    }
+    return refresh.toInstant().toEpochMilli();
+  }
+
+  /** Query BigQuery for the stats of a county, returning failure if the query fails. */
+  private static QueryCovidStats queryCovidStatsFips(String fips) {
+
     // Set up BigQuery service.
     BigQuery bigquery =
         BigQueryOptions.newBuilder().setProjectId("shopsafe-step-2020").build().getService();
@@ -144,18 +194,18 @@ public class QueryCovidStats {
     } catch (InterruptedException exception) {
 
       // Set failedQuery to true and log error if query fails.
-      System.out.println("Error: Big Query Failure!");
+      logger.warning("Error: Big Query Failure!");
       return new QueryCovidStats(0, 0, true, covidData);
     } catch (ParseException e) {
 
       // Set failedQuery to true and log error if unable to parse.
-      System.out.println("Unable to parse date");
+      logger.warning("Unable to parse date");
       return new QueryCovidStats(0, 0, true, covidData);
     }
 
     // If there are null values, set failedQuery to true and log error.
     if (cases == -1 || deaths == -1 || date == "") {
-      System.out.println("Error: Failed to obtain values for fips: " + fips);
+      logger.warning("Error: Failed to obtain values for fips: " + fips);
       return new QueryCovidStats(0, 0, true, covidData);
     }
 
@@ -0,0 +1,39 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.Entity;
+import java.util.List;
+
+/** Class containing a page of ratings, and the cursor of the next page. */
+public final class RatingPage {
+
+  private final List<Entity> ratings;
+  private final String cursor;
+
+  /** RatingPage constructor, the cursor is null if there are no more ratings. */
+  public RatingPage(List<Entity> ratings, String cursor) {
+    this.ratings = ratings;
+    this.cursor = cursor;
+  }
+
+  public List<Entity> getRatings() {
+    return ratings;
+  }
+
+  public String getCursor() {
+    return cursor;
+  }
+}
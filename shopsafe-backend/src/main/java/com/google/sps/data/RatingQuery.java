@@ -0,0 +1,78 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.Date;
+
+/*
+ * Options for reading the ratings of a store. By default every rating is read, with all its
+ * properties.
+ */
+public final class RatingQuery {
+
+  private boolean projected = false;
+  private Date from;
+  private Date to;
+  private int limit = 0;
+  private String cursor;
+
+  /**
+   * Read only the rating categories and date of each rating. Ratings missing one of them are not
+   * read.
+   */
+  public RatingQuery setProjected(boolean projected) {
+    this.projected = projected;
+    return this;
+  }
+
+  /** Read only ratings placed at or after from and before to, either may be null. */
+  public RatingQuery setRange(Date from, Date to) {
+    this.from = from;
+    this.to = to;
+    return this;
+  }
+
+  /** Read at most limit ratings in a page, or every rating if zero. */
+  public RatingQuery setLimit(int limit) {
+    this.limit = limit;
+    return this;
+  }
+
+  /** Start after the ratings of an earlier page, given its cursor. */
+  public RatingQuery setCursor(String cursor) {
+    this.cursor = cursor;
+    return this;
+  }
+
+  public boolean isProjected() {
+    return projected;
+  }
+
+  public Date getFrom() {
+    return from;
+  }
+
+  public Date getTo() {
+    return to;
+  }
+
+  public int getLimit() {
+    return limit;
+  }
+
+  public String getCursor() {
+    return cursor;
+  }
+}
@@ -0,0 +1,50 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+/*
+ * Immutable state of a single servlet request, passed to the helpers that serve it so
+ * one servlet instance can handle many requests at once.
+ */
+public final class RequestContext {
+
+  private final String placeKey;
+  private final LatLng userLocation;
+
+  /** RequestContext constructor, not given a user location. */
+  public RequestContext(String placeKey) {
+    this(placeKey, null);
+  }
+
+  /** RequestContext constructor, given a user location. */
+  public RequestContext(String placeKey, LatLng userLocation) {
+    this.placeKey = placeKey;
+    this.userLocation = userLocation;
+  }
+
+  /** Returns the key parameter appended to Places and Geocoding API urls. */
+  public String getPlaceKey() {
+    return placeKey;
+  }
+
+  public LatLng getUserLocation() {
+    return userLocation;
+  }
+
+  /** Returns a copy of this context with the given user location. */
+  public RequestContext withUserLocation(LatLng userLocation) {
+    return new RequestContext(placeKey, userLocation);
+  }
+}
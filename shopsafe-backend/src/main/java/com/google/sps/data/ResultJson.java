@@ -0,0 +1,154 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/*
+ * Shared serializer of the /stores and /store responses. It writes the same json as the default
+ * reflective Gson, subclass fields first, null fields left out and html characters escaped,
+ * straight to a JsonWriter, without reflection or building the whole response as a string.
+ */
+public final class ResultJson {
+
+  private ResultJson() {}
+
+  /** Write the stores response to the writer, followed by a new line. */
+  public static void write(StoresResult result, Writer writer) throws IOException {
+    JsonWriter out = newJsonWriter(writer);
+    writeStoresResult(out, result);
+    out.flush();
+    writer.write(System.lineSeparator());
+  }
+
+  /** Write the store response to the writer, followed by a new line. */
+  public static void write(StoreResult result, Writer writer) throws IOException {
+    JsonWriter out = newJsonWriter(writer);
+    writeStoreResult(out, result);
+    out.flush();
+    writer.write(System.lineSeparator());
+  }
+
+  /** Returns a json writer with the settings of the default Gson, not closed with the writer. */
+  private static JsonWriter newJsonWriter(Writer writer) {
+    JsonWriter out = new JsonWriter(writer);
+    out.setHtmlSafe(true);
+    out.setSerializeNulls(false);
+    return out;
+  }
+
+  private static void writeStoresResult(JsonWriter out, StoresResult result) throws IOException {
+    out.beginObject();
+    out.name("stores");
+    if (result.getStores() == null) {
+      out.nullValue();
+    } else {
+      out.beginArray();
+      for (StoreStats store : result.getStores()) {
+        writeStoreStats(out, store);
+      }
+      out.endArray();
+    }
+    out.name("latLng");
+    if (result.getLatLng() == null) {
+      out.nullValue();
+    } else {
+      out.beginObject();
+      out.name("latitude").value(result.getLatLng().getLatitude());
+      out.name("longitude").value(result.getLatLng().getLongitude());
+      out.endObject();
+    }
+    out.endObject();
+  }
+
+  private static void writeStoreResult(JsonWriter out, StoreResult result) throws IOException {
+    out.beginObject();
+    out.name("store");
+    if (result.getStore() == null) {
+      out.nullValue();
+    } else {
+      writeStoreStats(out, result.getStore());
+    }
+    out.name("countyStats");
+    if (result.getCountyStats() == null) {
+      out.nullValue();
+    } else {
+      writeCountyStats(out, result.getCountyStats());
+    }
+    writeDataPoints(out, "maskData", result.getMaskData());
+    writeDataPoints(out, "busyData", result.getBusyData());
+    writeDataPoints(out, "lineData", result.getLineData());
+    writeDataPoints(out, "hygieneData", result.getHygieneData());
+    out.endObject();
+  }
+
+  private static void writeStoreStats(JsonWriter out, StoreStats store) throws IOException {
+    out.beginObject();
+    out.name("score").value(store.getScore());
+    out.name("currentScore").value(store.getCurrentScore());
+    out.name("busy").value(store.getBusy());
+    out.name("line").value(store.getLine());
+    out.name("hygiene").value(store.getHygiene());
+    out.name("masks").value(store.getMasks());
+    out.name("checkInCount").value(store.getCheckInCount());
+    out.name("distance").value(store.getDistance());
+
+    // Fields of the store itself.
+    out.name("id").value(store.getId());
+    out.name("name").value(store.getName());
+    out.name("address").value(store.getAddress());
+    out.name("open").value(store.getOpen());
+    out.name("latitude").value(store.getLatitude());
+    out.name("longitude").value(store.getLongitude());
+    out.name("rating").value(store.getRating());
+    out.endObject();
+  }
+
+  private static void writeCountyStats(JsonWriter out, CountyStats countyStats)
+      throws IOException {
+    out.beginObject();
+    out.name("cases").value(countyStats.getCases());
+    out.name("deaths").value(countyStats.getDeaths());
+    out.name("population").value(countyStats.getPopulation());
+    writeDataPoints(out, "covidData", countyStats.getCovidData());
+
+    // Fields of the county itself.
+    out.name("countyName").value(countyStats.getCountyName());
+    out.name("stateName").value(countyStats.getStateName());
+    out.name("countyFips").value(countyStats.getCountyFips());
+    out.endObject();
+  }
+
+  /** Write a list of data points, a null list is left out like any null field. */
+  private static void writeDataPoints(JsonWriter out, String name, List<DataPoint> points)
+      throws IOException {
+    out.name(name);
+    if (points == null) {
+      out.nullValue();
+      return;
+    }
+    out.beginArray();
+    for (DataPoint point : points) {
+      out.beginObject();
+      out.name("value").value(point.getValue());
+      out.name("date").value(point.getDate());
+      out.endObject();
+    }
+    out.endArray();
+  }
+}
@@ -0,0 +1,80 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.ThreadManager;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ * Runs a refresh task on an App Engine background thread at a fixed period, which needs the basic
+ * scaling set in appengine-web.xml. Only one run of the task is in flight at a time, a run that is
+ * requested while another is going is skipped.
+ */
+public final class ScheduledRefresher {
+
+  private static final Logger logger = Logger.getLogger(ScheduledRefresher.class.getName());
+
+  private final String name;
+  private final long periodMinutes;
+  private final Runnable task;
+  private final AtomicBoolean running = new AtomicBoolean(false);
+  private ScheduledExecutorService scheduler;
+
+  /** ScheduledRefresher constructor, the task should decide itself whether work is needed. */
+  public ScheduledRefresher(String name, long periodMinutes, Runnable task) {
+    this.name = name;
+    this.periodMinutes = periodMinutes;
+    this.task = task;
+  }
+
+  /** Start running the task now and every period after, does nothing if already started. */
+  public synchronized void start() {
+    if (scheduler != null) {
+      return;
+    }
+    scheduler = Executors.newSingleThreadScheduledExecutor(ThreadManager.backgroundThreadFactory());
+    scheduler.scheduleAtFixedRate(this::refresh, 0, periodMinutes, TimeUnit.MINUTES);
+  }
+
+  /** Stop running the task. */
+  public synchronized void stop() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+      scheduler = null;
+    }
+  }
+
+  /** Run the task on the calling thread, returns false if a run was already in flight. */
+  public boolean refresh() {
+    if (!running.compareAndSet(false, true)) {
+      return false;
+    }
+    try {
+      task.run();
+    } catch (Exception e) {
+
+      // If there is an error, log it, the next scheduled run will try again.
+      logger.log(Level.SEVERE, "Failed to refresh " + name + ".", e);
+    } finally {
+      running.set(false);
+    }
+    return true;
+  }
+}
@@ -0,0 +1,97 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Date range and resolution of a series of data points. Points outside the range are dropped,
+ * and the points of each day, week or month are reduced to the last one, since the series are
+ * running totals and averages.
+ */
+public final class SeriesRange {
+
+  // Number of days, up to the end of the range, kept when a request does not give the start.
+  private static final int DEFAULT_DAYS = Integer.getInteger("shopsafe.series.defaultDays", 90);
+
+  /** Length of the period each point of a series covers. */
+  public enum Resolution {
+    DAY,
+    WEEK,
+    MONTH
+  }
+
+  private final LocalDate from;
+  private final LocalDate to;
+  private final Resolution resolution;
+
+  /** SeriesRange constructor, from and to are inclusive and either may be null. */
+  public SeriesRange(LocalDate from, LocalDate to, Resolution resolution) {
+    this.from = from;
+    this.to = to;
+    this.resolution = resolution;
+  }
+
+  /**
+   * Returns the range of a request, where a missing start is the default number of days before the
+   * end, and a missing end is today, so a series is never sent whole by default.
+   */
+  public static SeriesRange withDefaults(
+      LocalDate from, LocalDate to, Resolution resolution, LocalDate today) {
+    LocalDate end = to == null ? today : to;
+    return new SeriesRange(from == null ? end.minusDays(DEFAULT_DAYS - 1) : from, to, resolution);
+  }
+
+  /** Returns a new series with the points of the original in the range, one per period. */
+  public ArrayList<DataPoint> apply(List<DataPoint> points) {
+    ArrayList<DataPoint> result = new ArrayList<>();
+    if (points == null) {
+      return result;
+    }
+    LocalDate lastPeriod = null;
+    for (DataPoint point : points) {
+      LocalDate day = point.getDay();
+      if ((from != null && day.isBefore(from)) || (to != null && day.isAfter(to))) {
+        continue;
+      }
+
+      // A later point of the same period replaces the earlier one.
+      LocalDate period = getPeriod(day);
+      if (period.equals(lastPeriod)) {
+        result.set(result.size() - 1, point);
+      } else {
+        result.add(point);
+      }
+      lastPeriod = period;
+    }
+    return result;
+  }
+
+  /** Returns the first day of the period the day is in. */
+  private LocalDate getPeriod(LocalDate day) {
+    switch (resolution) {
+      case WEEK:
+        return day.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+      case MONTH:
+        return day.withDayOfMonth(1);
+      default:
+        return day;
+    }
+  }
+}
@@ -14,24 +14,94 @@
 
 package com.google.sps.data;
 
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.Cursor;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.FetchOptions;
 import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.api.datastore.KeyFactory.Builder;
 import com.google.appengine.api.datastore.PreparedQuery;
+import com.google.appengine.api.datastore.PropertyProjection;
 import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
+import com.google.appengine.api.datastore.Query.Filter;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
 
 /*
  * Class that communicates with datastore to get, create, update, and delete
- * Store and Ratings Entries in datastore.
+ * Store and Ratings Entries in datastore. The ratings of a store are spread over shards, each
+ * its own entity group with a check in count and rating sums. The Store entity is the first
+ * shard, the others are RatingShard entities added when the store gets many check ins. Each
+ * shard also keeps the sums of every day with check ins in RatingDay entities.
  */
 public class StoreDatastoreHandler {
 
+  private static final Logger logger = Logger.getLogger(StoreDatastoreHandler.class.getName());
+
+  // Rating categories with a running sum kept on each shard, as "<category>Sum".
+  public static final String[] CATEGORIES = {"busy", "line", "hygiene", "mask"};
+
+  // Number of times a check in is tried when its transaction conflicts with another one.
+  private static final int COMMIT_ATTEMPTS = 3;
+
+  // Check ins a shard takes per minute before the store gets more shards, and the most it gets.
+  private static final int SHARD_WRITES_PER_MINUTE =
+      Integer.getInteger("shopsafe.ratings.shardWritesPerMinute", 30);
+  private static final int MAX_SHARDS = Integer.getInteger("shopsafe.ratings.maxShards", 16);
+  private static final long WINDOW_MILLIS = 60 * 1000;
+
+  // Keys per batch delete, the most datastore takes in one call, and batches deleted at a time.
+  private static final int DELETE_BATCH = 500;
+  private static final int DELETES_IN_FLIGHT = 8;
+
+  // Ratings read from datastore at a time, and the cursor position of a shard that was read.
+  private static final int RATING_CHUNK = 500;
+  private static final String SHARD_DONE = "done";
+
+  // Entries deleted between progress messages.
+  private static final long DELETE_PROGRESS = 10000;
+
+  // Shard counts of stores known to be in datastore, so check ins do not read the store first.
+  // They expire so shards added by other instances are picked up.
+  private static final ExpiringCache<String, Integer> knownStores =
+      new ExpiringCache<>(
+          Integer.getInteger("shopsafe.ratings.knownStores", 10000),
+          TimeUnit.MINUTES.toMillis(Long.getLong("shopsafe.ratings.knownStoreMinutes", 10)));
+
+  // Time for the weight of a rating in the decayed sums to halve.
+  private static final long HALF_LIFE_MILLIS =
+      Long.getLong("shopsafe.ratings.halfLifeHours", 24) * 60 * 60 * 1000;
+
   private String storeId;
   private String userId;
   private Key storeKey;
@@ -51,73 +121,759 @@ public class StoreDatastoreHandler {
     this.storeKey = new Builder("Store", storeId).getKey();
   }
 
-  /** Wrapper that handles cases where store is in datastore or not. */
+  /**
+   * Wrapper that handles cases where store is in datastore or not. The rating is added together
+   * with the running sums of a random shard in one transaction.
+   */
   public void placeStore(Map<String, String[]> ratingsMap) {
-    Entity ratingEntity = createRatingsEntity(ratingsMap);
-    datastore.put(ratingEntity);
-    try {
-      // Found store in datastore
-      Entity existingStoreEntity = datastore.get(storeKey);
-    } catch (Exception e) {
+    placeCheckIns(Collections.singletonList(new CheckIn(storeId, ratingsMap, new Date())));
+  }
+
+  /** Adds check ins of the store together with the running sums of a random shard. */
+  public void placeCheckIns(List<CheckIn> checkIns) {
+    int shardCount = getShardCount();
+    for (int attempt = 1; ; attempt++) {
+      int shard = ThreadLocalRandom.current().nextInt(shardCount);
+      List<Entity> ratingEntities = new ArrayList<>();
+      Set<String> days = new HashSet<>();
+      for (CheckIn checkIn : checkIns) {
+        Entity ratingEntity = createRatingsEntity(checkIn, getShardKey(shard));
+        ratingEntities.add(ratingEntity);
+        days.add(getDay(ratingEntity));
+      }
+      Transaction transaction =
+          shard == 0
+              ? datastore.beginTransaction()
+              : datastore.beginTransaction(TransactionOptions.Builder.withXG(true));
+      try {
+
+        // The known shards may be stale if the store was deleted or recreated on another
+        // instance, so check the store still has the shard before writing to it.
+        if (shard > 0) {
+          Entity storeEntity = getEntity(transaction, storeKey);
+          if (storeEntity == null || shard >= getShardCount(storeEntity)) {
+            shardCount = storeEntity == null ? 1 : getShardCount(storeEntity);
+            knownStores.put(storeId, shardCount);
+            continue;
+          }
+        }
+        Entity shardEntity = getShardEntity(transaction, shard);
+        Map<String, Entity> ratingDays = getRatingDays(transaction, shardEntity, days);
+
+        // Add each rating to the sums of the shard and of its day on the shard.
+        for (Entity ratingEntity : ratingEntities) {
+          addToSums(shardEntity, ratingEntity);
+          addToDecayedSums(shardEntity, ratingEntity);
+          addToSums(ratingDays.get(getDay(ratingEntity)), ratingEntity);
+        }
+        boolean busyShard = countWrites(shardEntity, ratingEntities.size());
+
+        List<Entity> entities = new ArrayList<>(ratingDays.values());
+        entities.addAll(ratingEntities);
+        entities.add(shardEntity);
+        datastore.put(transaction, entities);
+        transaction.commit();
+
+        // The store is in datastore now, remember it and its shards for the next check ins.
+        if (shard == 0) {
+          knownStores.put(storeId, getShardCount(shardEntity));
+        } else {
+          knownStores.put(storeId, shardCount);
+        }
+
+        // If the shard is getting more check ins than it should, spread the next ones wider.
+        if (busyShard) {
+          addShards(shardCount);
+        }
+        return;
+      } catch (ConcurrentModificationException e) {
+
+        // Another check in changed the shard first, try again on a random shard.
+        if (attempt >= COMMIT_ATTEMPTS) {
+          throw e;
+        }
+      } finally {
+        if (transaction.isActive()) {
+          transaction.rollback();
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns an entity with the check in count and rating sums of all shards of the store, or null
+   * if the store has no check ins. Stores created before the sums were kept are summed once and
+   * updated.
+   */
+  public Entity getStoreSums() {
+    Entity storeEntity = getEntity(null, storeKey);
+    if (storeEntity == null) {
+      return null;
+    }
+    if (!storeEntity.hasProperty("checkInCount")) {
+      Transaction transaction = datastore.beginTransaction();
+      try {
+        storeEntity = getStoreEntity(transaction);
+        datastore.put(transaction, storeEntity);
+        transaction.commit();
+      } catch (ConcurrentModificationException e) {
+
+        // A check in updated the store at the same time, so its sums are already there.
+        return getStoreSums();
+      } finally {
+        if (transaction.isActive()) {
+          transaction.rollback();
+        }
+      }
+    }
+    if (getShardCount(storeEntity) == 1) {
+      return storeEntity;
+    }
+
+    // Get the other shards in one batch and add them to the sums of the store.
+    return sumShards(storeId, storeEntity, datastore.get(getOtherShardKeys(storeId, storeEntity)));
+  }
+
+  /**
+   * Returns the check in count and rating sums of each store with check ins, by store id, using
+   * one batch get for the stores and one for their other shards.
+   */
+  public static Map<String, Entity> getStoreSums(List<String> storeIds) {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    List<Key> storeKeys = new ArrayList<>();
+    for (String storeId : storeIds) {
+      storeKeys.add(getShardKey(storeId, 0));
+    }
+    Map<Key, Entity> storeEntities = datastore.get(storeKeys);
+
+    // Get the other shards of all the stores together.
+    List<Key> shardKeys = new ArrayList<>();
+    for (Entity storeEntity : storeEntities.values()) {
+      shardKeys.addAll(getOtherShardKeys(storeEntity.getKey().getName(), storeEntity));
+    }
+    Map<Key, Entity> shardEntities =
+        shardKeys.isEmpty() ? new HashMap<>() : datastore.get(shardKeys);
+
+    Map<String, Entity> storeSums = new HashMap<>();
+    for (String storeId : storeIds) {
+      Entity storeEntity = storeEntities.get(getShardKey(storeId, 0));
+      if (storeEntity == null) {
+        continue;
+      }
+
+      // Stores created before the sums were kept are summed on their own.
+      if (!storeEntity.hasProperty("checkInCount")) {
+        storeSums.put(storeId, new StoreDatastoreHandler(storeId).getStoreSums());
+      } else {
+        storeSums.put(storeId, sumShards(storeId, storeEntity, shardEntities));
+      }
+    }
+    return storeSums;
+  }
+
+  /** Returns the keys of the shards of the store other than the Store entity. */
+  private static List<Key> getOtherShardKeys(String storeId, Entity storeEntity) {
+    List<Key> shardKeys = new ArrayList<>();
+    for (int shard = 1; shard < getShardCount(storeEntity); shard++) {
+      shardKeys.add(getShardKey(storeId, shard));
+    }
+    return shardKeys;
+  }
+
+  /** Returns an entity with the sums of the Store entity and its other shards that were found. */
+  private static Entity sumShards(String storeId, Entity storeEntity, Map<Key, Entity> shards) {
+    if (getShardCount(storeEntity) == 1) {
+      return storeEntity;
+    }
+    Entity sums = new Entity("Store", storeId);
+    setEmptySums(sums);
+    setEmptyDecayedSums(sums, System.currentTimeMillis());
+    addSums(sums, storeEntity);
+    addDecayedSums(sums, storeEntity);
+    for (Key shardKey : getOtherShardKeys(storeId, storeEntity)) {
+      Entity shardEntity = shards.get(shardKey);
+      if (shardEntity != null) {
+        addSums(sums, shardEntity);
+        addDecayedSums(sums, shardEntity);
+      }
+    }
+    return sums;
+  }
+
+  /**
+   * Returns the number of shards the ratings of the store are spread over, from the known stores
+   * if the store is one of them.
+   */
+  private int getShardCount() {
+    Integer shardCount = knownStores.get(storeId);
+    if (shardCount == null) {
+      Entity storeEntity = getEntity(null, storeKey);
+      shardCount = storeEntity == null ? 1 : getShardCount(storeEntity);
+    }
+    return shardCount;
+  }
+
+  /** Returns the entity with the key, or null if it is not in datastore. */
+  private Entity getEntity(Transaction transaction, Key key) {
+    return datastore.get(transaction, Collections.singletonList(key)).get(key);
+  }
+
+  private static int getShardCount(Entity storeEntity) {
+    Long shardCount = (Long) storeEntity.getProperty("shardCount");
+    return shardCount == null ? 1 : shardCount.intValue();
+  }
+
+  private Key getShardKey(int shard) {
+    return getShardKey(storeId, shard);
+  }
+
+  /** Returns the key of a shard, the first shard is the Store entity. */
+  private static Key getShardKey(String storeId, int shard) {
+    return shard == 0
+        ? new Builder("Store", storeId).getKey()
+        : new Builder("RatingShard", storeId + "#" + shard).getKey();
+  }
+
+  /** Returns the shard entity in the transaction, creating it if it is not in datastore. */
+  private Entity getShardEntity(Transaction transaction, int shard) {
+    if (shard == 0) {
+      return getStoreEntity(transaction);
+    }
+    Entity shardEntity = getEntity(transaction, getShardKey(shard));
+    if (shardEntity == null) {
+      shardEntity = new Entity("RatingShard", storeId + "#" + shard);
+      setEmptySums(shardEntity);
+    }
+    return shardEntity;
+  }
+
+  /** Returns the Store entity with its sums in the transaction, creating or backfilling them. */
+  private Entity getStoreEntity(Transaction transaction) {
+    Entity storeEntity = getEntity(transaction, storeKey);
+    if (storeEntity == null) {
       // Store not in datastore
-      Entity storeEntity = new Entity("Store", storeId);
-      datastore.put(storeEntity);
+      storeEntity = new Entity("Store", storeId);
+    }
+    if (!storeEntity.hasProperty("checkInCount")) {
+      setEmptySums(storeEntity);
+
+      // Add the ratings placed before the store kept sums.
+      Query query = new Query("Rating", storeKey).setAncestor(storeKey);
+      for (Entity ratingEntity : datastore.prepare(transaction, query).asIterable()) {
+        addToSums(storeEntity, ratingEntity);
+        addToDecayedSums(storeEntity, ratingEntity);
+      }
     }
+    return storeEntity;
   }
 
-  /** Creates Rating Entity, does not put in datastore. */
-  private Entity createRatingsEntity(Map<String, String[]> ratingsMap) {
-    // Set store as parent entity
-    Entity ratingEntity = new Entity("Rating", storeKey);
+  /**
+   * Returns the day entities of the shard to put with ratings of the given days, by day. Shards
+   * that kept their ratings before the days were kept get all their days, rolled up from their
+   * ratings.
+   */
+  private Map<String, Entity> getRatingDays(
+      Transaction transaction, Entity shardEntity, Set<String> days) {
+    Key shardKey = shardEntity.getKey();
+    Map<String, Entity> ratingDays = new HashMap<>();
+    if (!Boolean.TRUE.equals(shardEntity.getProperty("dailyRollups"))) {
+      Query query = new Query("Rating", shardKey).setAncestor(shardKey);
+      ratingDays.putAll(
+          rollUpRatings(datastore.prepare(transaction, query).asIterable(), shardKey));
+      shardEntity.setUnindexedProperty("dailyRollups", true);
+    }
+    for (String day : days) {
+      if (ratingDays.containsKey(day)) {
+        continue;
+      }
+      Entity ratingDay = getEntity(transaction, KeyFactory.createKey(shardKey, "RatingDay", day));
+      ratingDays.put(day, ratingDay == null ? createRatingDay(shardKey, day) : ratingDay);
+    }
+    return ratingDays;
+  }
+
+  /**
+   * Returns the check in count and rating sums of each day the store has check ins, over all its
+   * shards, ordered by day. Shards that kept their ratings before the days were kept are rolled up
+   * and updated once.
+   */
+  public List<Entity> getRatingDays() {
+    Entity storeEntity = getEntity(null, storeKey);
+    if (storeEntity == null) {
+      return new ArrayList<>();
+    }
+    List<Entity> shardEntities = new ArrayList<>();
+    shardEntities.add(storeEntity);
+    shardEntities.addAll(datastore.get(getOtherShardKeys(storeId, storeEntity)).values());
+
+    TreeMap<String, Entity> ratingDays = new TreeMap<>();
+    for (Entity shardEntity : shardEntities) {
+      Key shardKey = shardEntity.getKey();
+      Collection<Entity> shardDays =
+          Boolean.TRUE.equals(shardEntity.getProperty("dailyRollups"))
+              ? getShardDays(shardKey)
+              : rollUpShard(shardKey);
+
+      // Add the days of the shard to the days of the store.
+      for (Entity shardDay : shardDays) {
+        String day = shardDay.getKey().getName();
+        if (!ratingDays.containsKey(day)) {
+          ratingDays.put(day, createRatingDay(storeKey, day));
+        }
+        addSums(ratingDays.get(day), shardDay);
+      }
+    }
+    return new ArrayList<>(ratingDays.values());
+  }
+
+  /** Returns the day entities of a shard that keeps them. */
+  private List<Entity> getShardDays(Key shardKey) {
+    Query query = new Query("RatingDay", shardKey).setAncestor(shardKey);
+    return datastore.prepare(query).asList(FetchOptions.Builder.withDefaults());
+  }
+
+  /**
+   * Rolls up the ratings of a shard not written since the days were kept into day entities, and
+   * puts them with the shard in one transaction so it is done once. Returns the days of the shard.
+   */
+  private Collection<Entity> rollUpShard(Key shardKey) {
+    Transaction transaction = datastore.beginTransaction();
+    try {
+      Entity shardEntity = getEntity(transaction, shardKey);
+      if (shardEntity == null) {
+        return new ArrayList<>();
+      }
+      if (Boolean.TRUE.equals(shardEntity.getProperty("dailyRollups"))) {
+        return getShardDays(shardKey);
+      }
+      Map<String, Entity> ratingDays =
+          getRatingDays(transaction, shardEntity, Collections.emptySet());
+      List<Entity> entities = new ArrayList<>(ratingDays.values());
+      entities.add(shardEntity);
+      datastore.put(transaction, entities);
+      transaction.commit();
+      return ratingDays.values();
+    } catch (ConcurrentModificationException e) {
+
+      // A check in rolled up the shard at the same time, so its days are already there.
+      return getShardDays(shardKey);
+    } finally {
+      if (transaction.isActive()) {
+        transaction.rollback();
+      }
+    }
+  }
+
+  /** Returns day entities under the shard with the sums of the ratings of each day. */
+  private static Map<String, Entity> rollUpRatings(Iterable<Entity> ratingEntities, Key shardKey) {
+    Map<String, Entity> ratingDays = new HashMap<>();
+    for (Entity ratingEntity : ratingEntities) {
+      String day = getDay(ratingEntity);
+      if (!ratingDays.containsKey(day)) {
+        ratingDays.put(day, createRatingDay(shardKey, day));
+      }
+      addToSums(ratingDays.get(day), ratingEntity);
+    }
+    return ratingDays;
+  }
+
+  /**
+   * Creates an empty day entity under the given parent, dated at the start of the day in the
+   * local time zone so it is formatted as the same day.
+   */
+  private static Entity createRatingDay(Key parentKey, String day) {
+    Entity ratingDay = new Entity("RatingDay", day, parentKey);
+    setEmptySums(ratingDay);
+    ratingDay.setProperty(
+        "Date", Date.from(LocalDate.parse(day).atStartOfDay(ZoneId.systemDefault()).toInstant()));
+    return ratingDay;
+  }
+
+  /** Returns the calendar day of a rating in UTC, as yyyy-MM-dd. */
+  private static String getDay(Entity ratingEntity) {
+    Date date = (Date) ratingEntity.getProperty("Date");
+    return date.toInstant().atZone(ZoneOffset.UTC).toLocalDate().toString();
+  }
+
+  /** Double the shards of the store, unless another check in already changed them. */
+  private void addShards(int shardCount) {
+    Transaction transaction = datastore.beginTransaction();
+    try {
+      Entity storeEntity = getStoreEntity(transaction);
+      if (getShardCount(storeEntity) != shardCount || shardCount >= MAX_SHARDS) {
+        knownStores.put(storeId, getShardCount(storeEntity));
+        return;
+      }
+      int newShardCount = Math.min(shardCount * 2, MAX_SHARDS);
+      storeEntity.setUnindexedProperty("shardCount", (long) newShardCount);
+      datastore.put(transaction, storeEntity);
+      transaction.commit();
+      knownStores.put(storeId, newShardCount);
+      logger.info("Store " + storeId + " now has " + newShardCount + " rating shards.");
+    } catch (ConcurrentModificationException e) {
+
+      // If the store is busy, the next busy shard will try again.
+      logger.warning("Failed to add rating shards to store " + storeId + ".");
+    } finally {
+      if (transaction.isActive()) {
+        transaction.rollback();
+      }
+    }
+  }
+
+  /**
+   * Counts writes in the current minute of the shard, returns true when the count goes over the
+   * limit in that minute.
+   */
+  private static boolean countWrites(Entity shardEntity, long writes) {
+    long now = System.currentTimeMillis();
+    Long windowStart = (Long) shardEntity.getProperty("windowStart");
+    if (windowStart == null || now - windowStart >= WINDOW_MILLIS) {
+      shardEntity.setUnindexedProperty("windowStart", now);
+      shardEntity.setUnindexedProperty("windowCount", writes);
+      return writes > SHARD_WRITES_PER_MINUTE;
+    }
+    long windowCount = (long) shardEntity.getProperty("windowCount");
+    shardEntity.setUnindexedProperty("windowCount", windowCount + writes);
+    return windowCount <= SHARD_WRITES_PER_MINUTE
+        && windowCount + writes > SHARD_WRITES_PER_MINUTE;
+  }
+
+  /** Sets a zero check in count and rating sums on the entity. */
+  private static void setEmptySums(Entity entity) {
+    entity.setUnindexedProperty("checkInCount", 0L);
+    for (String category : CATEGORIES) {
+      entity.setUnindexedProperty(category + "Sum", 0.0);
+    }
+  }
+
+  /** Adds a rating to the check in count and rating sums of the shard. */
+  private static void addToSums(Entity shardEntity, Entity ratingEntity) {
+    shardEntity.setUnindexedProperty(
+        "checkInCount", (long) shardEntity.getProperty("checkInCount") + 1);
+    for (String category : CATEGORIES) {
+      if (ratingEntity.getProperty(category) instanceof Double) {
+        double sum = (double) shardEntity.getProperty(category + "Sum");
+        shardEntity.setUnindexedProperty(
+            category + "Sum", sum + (double) ratingEntity.getProperty(category));
+      }
+    }
+  }
+
+  /** Adds the check in count and rating sums of a shard to the sums entity. */
+  private static void addSums(Entity sums, Entity shardEntity) {
+    sums.setUnindexedProperty(
+        "checkInCount",
+        (long) sums.getProperty("checkInCount") + (long) shardEntity.getProperty("checkInCount"));
+    for (String category : CATEGORIES) {
+      sums.setUnindexedProperty(
+          category + "Sum",
+          (double) sums.getProperty(category + "Sum")
+              + (double) shardEntity.getProperty(category + "Sum"));
+    }
+  }
+
+  /** Returns how much a rating counts in the decayed sums once the given time has passed. */
+  public static double getDecayFactor(long elapsedMillis) {
+    return Math.pow(0.5, elapsedMillis / (double) HALF_LIFE_MILLIS);
+  }
+
+  /** Sets zero decayed sums on the entity, as of the given time. */
+  private static void setEmptyDecayedSums(Entity entity, long decayedAt) {
+    entity.setUnindexedProperty("decayedAt", decayedAt);
+    entity.setUnindexedProperty("decayedCount", 0.0);
+    for (String category : CATEGORIES) {
+      entity.setUnindexedProperty(category + "Decayed", 0.0);
+    }
+  }
+
+  /**
+   * Adds a rating to the decayed sums of the shard. The sums are first decayed to the time of the
+   * rating, or the rating is decayed to the time of the sums if it is older.
+   */
+  private static void addToDecayedSums(Entity shardEntity, Entity ratingEntity) {
+    long ratedAt = ((Date) ratingEntity.getProperty("Date")).getTime();
+    if (!shardEntity.hasProperty("decayedAt")) {
+      setEmptyDecayedSums(shardEntity, ratedAt);
+    }
+    long decayedAt = (long) shardEntity.getProperty("decayedAt");
+    double ratingFactor = 1.0;
+    double sumsFactor = 1.0;
+    if (ratedAt > decayedAt) {
+      sumsFactor = getDecayFactor(ratedAt - decayedAt);
+      shardEntity.setUnindexedProperty("decayedAt", ratedAt);
+    } else {
+      ratingFactor = getDecayFactor(decayedAt - ratedAt);
+    }
+    shardEntity.setUnindexedProperty(
+        "decayedCount",
+        (double) shardEntity.getProperty("decayedCount") * sumsFactor + ratingFactor);
+    for (String category : CATEGORIES) {
+      double decayed = (double) shardEntity.getProperty(category + "Decayed") * sumsFactor;
+      if (ratingEntity.getProperty(category) instanceof Double) {
+        decayed += (double) ratingEntity.getProperty(category) * ratingFactor;
+      }
+      shardEntity.setUnindexedProperty(category + "Decayed", decayed);
+    }
+  }
+
+  /** Adds the decayed sums of a shard, decayed to the time of the sums entity. */
+  private static void addDecayedSums(Entity sums, Entity shardEntity) {
+    if (!shardEntity.hasProperty("decayedAt")) {
+      return;
+    }
+    double factor =
+        getDecayFactor(
+            (long) sums.getProperty("decayedAt") - (long) shardEntity.getProperty("decayedAt"));
+    sums.setUnindexedProperty(
+        "decayedCount",
+        (double) sums.getProperty("decayedCount")
+            + (double) shardEntity.getProperty("decayedCount") * factor);
+    for (String category : CATEGORIES) {
+      sums.setUnindexedProperty(
+          category + "Decayed",
+          (double) sums.getProperty(category + "Decayed")
+              + (double) shardEntity.getProperty(category + "Decayed") * factor);
+    }
+  }
+
+  /** Creates Rating Entity of a check in under the given shard, does not put in datastore. */
+  private Entity createRatingsEntity(CheckIn checkIn, Key shardKey) {
+    // Set shard as parent entity
+    Entity ratingEntity = new Entity("Rating", shardKey);
 
     // Insert ratings
-    ratingsMap.forEach(
-        (String ratingField, String[] ratingValue) -> {
-          // Http request getParamMap method formats in array instead of single value.
-          ratingEntity.setProperty(ratingField, Double.parseDouble(ratingValue[0]));
-        });
+    checkIn.getRatings().forEach(ratingEntity::setProperty);
 
-    // Add date when created
-    Date date = new Date();
-    ratingEntity.setProperty("Date", date);
+    // Add date when the check in was placed
+    ratingEntity.setProperty("Date", checkIn.getDate());
 
     // Add user id
     ratingEntity.setProperty("User", userId);
     return ratingEntity;
   }
 
-  /** Returns the children Rating Entities associated with the Store, sorted by date. */
+  /** Returns the Rating Entities of all shards of the Store, sorted by date. */
   public List<Entity> getRatings() {
+    return getRatings(new RatingQuery()).getRatings();
+  }
+
+  /**
+   * Returns a page of the Rating Entities of all shards of the Store matching the query, sorted by
+   * date, with the cursor of the next page.
+   */
+  public RatingPage getRatings(RatingQuery ratingQuery) {
+    RatingIterator iterator = new RatingIterator(ratingQuery);
+    List<Entity> ratings = new ArrayList<>();
+    while (iterator.hasNext()
+        && (ratingQuery.getLimit() <= 0 || ratings.size() < ratingQuery.getLimit())) {
+      ratings.add(iterator.next());
+    }
+    return new RatingPage(ratings, iterator.hasNext() ? iterator.getCursor() : null);
+  }
+
+  /**
+   * Returns the Rating Entities of all shards of the Store matching the query one at a time,
+   * sorted by date. Ratings are read from datastore in chunks as they are needed, the limit is not
+   * used.
+   */
+  public Iterator<Entity> iterateRatings(RatingQuery ratingQuery) {
+    return new RatingIterator(ratingQuery);
+  }
+
+  /** Returns the query of the shard for ratings matching the rating query, sorted by date. */
+  private Query getRatingQuery(Key shardKey, RatingQuery ratingQuery) {
     Query query =
-        new Query("Rating", storeKey)
-            .setAncestor(storeKey)
+        new Query("Rating", shardKey)
+            .setAncestor(shardKey)
             .addSort("Date", Query.SortDirection.ASCENDING);
-    return datastore.prepare(query).asList(FetchOptions.Builder.withDefaults());
+
+    // Keep only the ratings in the time range.
+    List<Filter> filters = new ArrayList<>();
+    if (ratingQuery.getFrom() != null) {
+      filters.add(FilterOperator.GREATER_THAN_OR_EQUAL.of("Date", ratingQuery.getFrom()));
+    }
+    if (ratingQuery.getTo() != null) {
+      filters.add(FilterOperator.LESS_THAN.of("Date", ratingQuery.getTo()));
+    }
+    if (filters.size() == 1) {
+      query.setFilter(filters.get(0));
+    } else if (filters.size() > 1) {
+      query.setFilter(CompositeFilterOperator.and(filters));
+    }
+
+    // Read only the categories and date if the query is projected.
+    if (ratingQuery.isProjected()) {
+      for (String category : CATEGORIES) {
+        query.addProjection(new PropertyProjection(category, Double.class));
+      }
+      query.addProjection(new PropertyProjection("Date", Date.class));
+    }
+    return query;
+  }
+
+  /**
+   * Iterator that merges the ratings of every shard by date. Its cursor holds the position of each
+   * shard, separated by colons.
+   */
+  private final class RatingIterator implements Iterator<Entity> {
+
+    private final List<ShardReader> readers = new ArrayList<>();
+    private final PriorityQueue<ShardReader> heads =
+        new PriorityQueue<>(
+            Comparator.comparing((ShardReader reader) -> (Date) reader.head.getProperty("Date")));
+
+    private RatingIterator(RatingQuery ratingQuery) {
+      Entity storeEntity = getEntity(null, storeKey);
+      int shardCount = storeEntity == null ? 1 : getShardCount(storeEntity);
+      String[] positions =
+          ratingQuery.getCursor() == null ? new String[0] : ratingQuery.getCursor().split(":", -1);
+      for (int shard = 0; shard < shardCount; shard++) {
+        String position = shard < positions.length ? positions[shard] : "";
+        ShardReader reader = new ShardReader(getShardKey(shard), position, ratingQuery);
+        readers.add(reader);
+        if (reader.head != null) {
+          heads.add(reader);
+        }
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return !heads.isEmpty();
+    }
+
+    @Override
+    public Entity next() {
+      ShardReader reader = heads.poll();
+      if (reader == null) {
+        throw new NoSuchElementException();
+      }
+      Entity rating = reader.head;
+      reader.advance();
+      if (reader.head != null) {
+        heads.add(reader);
+      }
+      return rating;
+    }
+
+    /** Returns the cursor of the ratings not returned yet. */
+    private String getCursor() {
+      List<String> positions = new ArrayList<>();
+      for (ShardReader reader : readers) {
+        positions.add(reader.position);
+      }
+      return String.join(":", positions);
+    }
+  }
+
+  /**
+   * Reads the ratings of a shard, holding the next one. Its position is the cursor of that rating,
+   * empty to start at the first rating or "done" once every rating has been read.
+   */
+  private final class ShardReader {
+
+    private QueryResultIterator<Entity> iterator;
+    private Entity head;
+    private String position;
+
+    private ShardReader(Key shardKey, String position, RatingQuery ratingQuery) {
+      this.position = position;
+      if (position.equals(SHARD_DONE)) {
+        return;
+      }
+      FetchOptions options = FetchOptions.Builder.withChunkSize(RATING_CHUNK);
+      if (!position.isEmpty()) {
+        options.startCursor(Cursor.fromWebSafeString(position));
+      }
+      iterator =
+          datastore.prepare(getRatingQuery(shardKey, ratingQuery)).asQueryResultIterator(options);
+      advance();
+    }
+
+    /** Move on to the next rating of the shard, keeping the cursor that points to it. */
+    private void advance() {
+      if (iterator.hasNext()) {
+        position = iterator.getCursor().toWebSafeString();
+        head = iterator.next();
+      } else {
+        position = SHARD_DONE;
+        head = null;
+      }
+    }
   }
 
   // Tools For Debugging and Development
 
-  /** Deletes store and its ratings from Datastore. */
+  /** Deletes store, its shards and its ratings from Datastore. */
   public void deleteStoreAndRatings() {
-    List<Entity> ratingEntities = this.getRatings();
-    for (Entity ratingEntity : ratingEntities) {
-      Key ratingKey = ratingEntity.getKey();
-      datastore.delete(ratingKey);
+    Entity storeEntity = getEntity(null, storeKey);
+    int shardCount = storeEntity == null ? 1 : getShardCount(storeEntity);
+
+    // Every shard and everything under it, found with a keys only ancestor query.
+    long deleted = 0;
+    for (int shard = shardCount - 1; shard >= 0; shard--) {
+      deleted += deleteQuery(new Query(getShardKey(shard)), "store " + storeId);
     }
-    datastore.delete(storeKey);
+    knownStores.remove(storeId);
+    logger.info("Deleted store " + storeId + " with " + deleted + " entities.");
   }
 
   /** Deletes all entries in Datastore. */
   public void deleteData() {
-    deleteQuery(new Query("Store"));
-    deleteQuery(new Query("Rating"));
+    for (String kind : new String[] {"Store", "RatingShard", "Rating", "RatingDay"}) {
+      long deleted = deleteQuery(new Query(kind), kind);
+      logger.info("Deleted " + deleted + " " + kind + " entries.");
+    }
+    knownStores.clear();
   }
 
-  /** Deletes all entries in query. */
-  private void deleteQuery(Query query) {
-    PreparedQuery queryResults = datastore.prepare(query);
-    for (Entity entry : queryResults.asIterable()) {
-      datastore.delete(entry.getKey());
+  /**
+   * Deletes all entries in query, reading only their keys and deleting them in batches, several
+   * at a time. The name is used in progress messages. Returns the number of entries deleted.
+   */
+  private long deleteQuery(Query query, String name) {
+    AsyncDatastoreService asyncDatastore = DatastoreServiceFactory.getAsyncDatastoreService();
+    PreparedQuery queryResults = datastore.prepare(query.setKeysOnly());
+    ArrayDeque<Future<Void>> deletes = new ArrayDeque<>();
+    List<Key> batch = new ArrayList<>();
+    long deleted = 0;
+    for (Entity entry : queryResults.asIterable(FetchOptions.Builder.withChunkSize(DELETE_BATCH))) {
+      batch.add(entry.getKey());
+      if (batch.size() < DELETE_BATCH) {
+        continue;
+      }
+
+      // Start deleting the batch, waiting for the oldest one if too many are in flight.
+      deletes.add(asyncDatastore.delete(batch));
+      deleted += batch.size();
+      batch = new ArrayList<>();
+      if (deletes.size() >= DELETES_IN_FLIGHT) {
+        waitFor(deletes.poll());
+      }
+      if (deleted % DELETE_PROGRESS == 0) {
+        logger.info("Deleting entries of " + name + ", " + deleted + " so far.");
+      }
+    }
+    if (!batch.isEmpty()) {
+      deletes.add(asyncDatastore.delete(batch));
+      deleted += batch.size();
+    }
+    while (!deletes.isEmpty()) {
+      waitFor(deletes.poll());
+    }
+    return deleted;
+  }
+
+  /** Waits for a delete to finish, throwing its error if it failed. */
+  private static void waitFor(Future<Void> delete) {
+    try {
+      delete.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
     }
   }
 }
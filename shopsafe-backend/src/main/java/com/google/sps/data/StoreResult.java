@@ -44,4 +44,28 @@ public final class StoreResult {
     this.lineData = compiledRatings.get("line");
     this.hygieneData = compiledRatings.get("hygiene");
   }
+
+  public StoreStats getStore() {
+    return store;
+  }
+
+  public CountyStats getCountyStats() {
+    return countyStats;
+  }
+
+  public ArrayList<DataPoint> getMaskData() {
+    return maskData;
+  }
+
+  public ArrayList<DataPoint> getBusyData() {
+    return busyData;
+  }
+
+  public ArrayList<DataPoint> getLineData() {
+    return lineData;
+  }
+
+  public ArrayList<DataPoint> getHygieneData() {
+    return hygieneData;
+  }
 }
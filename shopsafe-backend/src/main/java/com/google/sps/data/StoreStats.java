@@ -19,6 +19,7 @@ public final class StoreStats extends Store {
 
   // Store stat properties.
   private final double score;
+  private final double currentScore;
   private final double busy;
   private final double line;
   private final double hygiene;
@@ -40,6 +41,8 @@ public final class StoreStats extends Store {
         new LatLng(store.latitude, store.longitude),
         store.rating);
     this.score = countyScore * COUNTY_WEIGHT + stats.getCheckInScore() * CHECK_IN_WEIGHT;
+    this.currentScore =
+        countyScore * COUNTY_WEIGHT + stats.getCurrentCheckInScore() * CHECK_IN_WEIGHT;
     this.busy = stats.getBusy();
     this.line = stats.getLine();
     this.hygiene = stats.getHygiene();
@@ -58,6 +61,8 @@ public final class StoreStats extends Store {
         new LatLng(store.latitude, store.longitude),
         store.rating);
     this.score = countyScore * COUNTY_WEIGHT + stats.getCheckInScore() * CHECK_IN_WEIGHT;
+    this.currentScore =
+        countyScore * COUNTY_WEIGHT + stats.getCurrentCheckInScore() * CHECK_IN_WEIGHT;
     this.busy = stats.getBusy();
     this.line = stats.getLine();
     this.hygiene = stats.getHygiene();
@@ -94,6 +99,10 @@ public final class StoreStats extends Store {
     return score;
   }
 
+  public double getCurrentScore() {
+    return currentScore;
+  }
+
   public double getBusy() {
     return busy;
   }
@@ -30,4 +30,12 @@ public final class StoresResult {
     this.stores = stores;
     this.latLng = latLng;
   }
+
+  public List<StoreStats> getStores() {
+    return stores;
+  }
+
+  public LatLng getLatLng() {
+    return latLng;
+  }
 }
@@ -0,0 +1,187 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.ThreadManager;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Client shared by all calls to the Places, Geocoding and FCC apis. Connections have strict
+ * timeouts, each host has a limit on the requests in flight to it, and responses are always read
+ * to the end and closed so the JDK can keep their connections alive and reuse them. That needs
+ * the native url stream handler and the http.maxConnections property set in appengine-web.xml,
+ * since URL Fetch, the default handler on App Engine, does not reuse connections.
+ */
+public final class UpstreamClient {
+
+  // Timeouts for connecting to a host and for each read of its response.
+  private static final int CONNECT_TIMEOUT_MILLIS =
+      Integer.getInteger("shopsafe.upstream.connectTimeoutMillis", 3000);
+  private static final int READ_TIMEOUT_MILLIS =
+      Integer.getInteger("shopsafe.upstream.readTimeoutMillis", 5000);
+
+  // Requests in flight to a single host, as many as http.maxConnections keeps alive for it.
+  private static final int REQUESTS_PER_HOST = Integer.getInteger("shopsafe.upstream.perHost", 16);
+
+  // Threads that run requests made with the async api, and the requests that may wait for them.
+  private static final int THREADS = Integer.getInteger("shopsafe.upstream.threads", 16);
+  private static final int QUEUE_CAPACITY = THREADS * 8;
+
+  // Size of the buffer used to skip what is left of a response.
+  private static final int DISCARD_BUFFER_SIZE = 8192;
+
+  private static final UpstreamClient instance = new UpstreamClient();
+
+  private final ConcurrentHashMap<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+
+  // Created with the first async request, since background threads need a request to start.
+  private volatile BoundedExecutor executor;
+
+  // Counters for how the upstream calls are doing.
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+  private final AtomicLong timeouts = new AtomicLong();
+  private final AtomicLong throttled = new AtomicLong();
+
+  /** Reads the body of a response. */
+  public interface ResponseReader<T> {
+    T read(Reader reader) throws IOException;
+  }
+
+  private UpstreamClient() {}
+
+  /** Returns the client shared by all upstream calls. */
+  public static UpstreamClient getInstance() {
+    return instance;
+  }
+
+  /** Makes a get request to the url, and returns its body as read by the response reader. */
+  public <T> T get(String url, ResponseReader<T> responseReader) throws IOException {
+    URL target = new URL(url);
+    String host = target.getHost();
+    Semaphore permits =
+        hostPermits.computeIfAbsent(host, key -> new Semaphore(REQUESTS_PER_HOST, true));
+
+    // Wait for a turn on the host no longer than it would take to connect.
+    try {
+      if (!permits.tryAcquire(CONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+        throttled.incrementAndGet();
+        throw new IOException("Too many requests in flight to " + host + ".");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted waiting for " + host + ".", e);
+    }
+
+    requests.incrementAndGet();
+    try {
+      HttpURLConnection connection = (HttpURLConnection) target.openConnection();
+      connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+      connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+
+      // If the host returns an error, drain it so the connection can be reused, and throw.
+      int status = connection.getResponseCode();
+      if (status >= 400) {
+        try (InputStream errorStream = connection.getErrorStream()) {
+          discard(errorStream);
+        }
+        throw new IOException("Status " + status + " from " + host + ".");
+      }
+      InputStream body = connection.getInputStream();
+      try (Reader reader = new InputStreamReader(body, StandardCharsets.UTF_8)) {
+        T result = responseReader.read(reader);
+
+        // Skip what is left of the body, so the connection goes back to the pool.
+        discard(body);
+        return result;
+      }
+    } catch (SocketTimeoutException e) {
+      timeouts.incrementAndGet();
+      failures.incrementAndGet();
+      throw e;
+    } catch (IOException | RuntimeException e) {
+      failures.incrementAndGet();
+      throw e;
+    } finally {
+      permits.release();
+    }
+  }
+
+  /**
+   * Returns a future for the body of a get request to the url, read by the response reader on a
+   * background thread shared by all requests. If the threads are all busy, the request is made on
+   * the calling thread.
+   */
+  public <T> CompletableFuture<T> getAsync(String url, ResponseReader<T> responseReader) {
+    return getExecutor()
+        .supply(
+            () -> {
+              try {
+                return get(url, responseReader);
+              } catch (IOException e) {
+                throw new CompletionException(e);
+              }
+            });
+  }
+
+  /** Returns the executor of the async api, creating it the first time. */
+  private synchronized BoundedExecutor getExecutor() {
+    if (executor == null) {
+      executor =
+          new BoundedExecutor(
+              "upstream", THREADS, QUEUE_CAPACITY, ThreadManager.backgroundThreadFactory());
+    }
+    return executor;
+  }
+
+  /** Read and throw away everything left in the stream, if there is one. */
+  private static void discard(InputStream stream) throws IOException {
+    if (stream == null) {
+      return;
+    }
+    byte[] buffer = new byte[DISCARD_BUFFER_SIZE];
+    while (stream.read(buffer) != -1) {
+      continue;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "{requests: "
+        + requests.get()
+        + ", failures: "
+        + failures.get()
+        + ", timeouts: "
+        + timeouts.get()
+        + ", throttled: "
+        + throttled.get()
+        + ", executor: "
+        + executor
+        + "}";
+  }
+}
@@ -0,0 +1,255 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+
+/*
+ * Streaming decoders for the responses of the Places, Geocoding and FCC apis. Each one reads the
+ * fields it needs as the response arrives and skips everything else.
+ */
+public final class UpstreamJson {
+
+  private UpstreamJson() {}
+
+  /**
+   * Read the stores of a Places text search, adding each one to the list as soon as it is read.
+   * Throws if a store is missing its id, name, address or location.
+   */
+  public static void readSearchStores(Reader reader, List<Store> stores) throws IOException {
+    JsonReader json = new JsonReader(reader);
+    json.beginObject();
+    while (json.hasNext()) {
+      if (!json.nextName().equals("results")) {
+        json.skipValue();
+        continue;
+      }
+      json.beginArray();
+      while (json.hasNext()) {
+        stores.add(readStore(json, null, "formatted_address"));
+      }
+      json.endArray();
+    }
+    json.endObject();
+  }
+
+  /** Read the store of a Places details response, throws if there is no complete store. */
+  public static Store readDetailsStore(Reader reader, String id) throws IOException {
+    JsonReader json = new JsonReader(reader);
+    Store store = null;
+    json.beginObject();
+    while (json.hasNext()) {
+      if (json.nextName().equals("result") && json.peek() == JsonToken.BEGIN_OBJECT) {
+        store = readStore(json, id, "vicinity");
+      } else {
+        json.skipValue();
+      }
+    }
+    json.endObject();
+    if (store == null) {
+      throw new IOException("No store in the Places details response.");
+    }
+    return store;
+  }
+
+  /** Read the location of the first Geocoding result, or return null if there are no results. */
+  public static LatLng readGeocodeLocation(Reader reader) throws IOException {
+    JsonReader json = new JsonReader(reader);
+    LatLng location = null;
+    json.beginObject();
+    while (json.hasNext()) {
+      if (!json.nextName().equals("results")) {
+        json.skipValue();
+        continue;
+      }
+      json.beginArray();
+      while (json.hasNext()) {
+        if (location != null) {
+          json.skipValue();
+          continue;
+        }
+
+        // Only the geometry of the first result is needed.
+        json.beginObject();
+        while (json.hasNext()) {
+          if (json.nextName().equals("geometry")) {
+            location = readGeometry(json);
+          } else {
+            json.skipValue();
+          }
+        }
+        json.endObject();
+        if (location == null) {
+          throw new IOException("No location in the first Geocoding result.");
+        }
+      }
+      json.endArray();
+    }
+    json.endObject();
+    return location;
+  }
+
+  /** Read the county of the first FCC result, throws if there is none. */
+  public static County readFccCounty(Reader reader) throws IOException {
+    JsonReader json = new JsonReader(reader);
+    County county = null;
+    json.beginObject();
+    while (json.hasNext()) {
+      if (!json.nextName().equals("results")) {
+        json.skipValue();
+        continue;
+      }
+      json.beginArray();
+      while (json.hasNext()) {
+        if (county != null) {
+          json.skipValue();
+          continue;
+        }
+
+        // Only the first result is needed.
+        String countyName = null;
+        String stateName = null;
+        String countyFips = null;
+        json.beginObject();
+        while (json.hasNext()) {
+          switch (json.nextName()) {
+            case "county_name":
+              countyName = readString(json);
+              break;
+            case "state_name":
+              stateName = readString(json);
+              break;
+            case "county_fips":
+              countyFips = readString(json);
+              break;
+            default:
+              json.skipValue();
+          }
+        }
+        json.endObject();
+        if (countyName == null || stateName == null || countyFips == null) {
+          throw new IOException("Incomplete county in the first FCC result.");
+        }
+        county = new County(countyName, stateName, countyFips);
+      }
+      json.endArray();
+    }
+    json.endObject();
+    if (county == null) {
+      throw new IOException("No county in the FCC response.");
+    }
+    return county;
+  }
+
+  /**
+   * Read a Places result object into a store, with the address from the given field. The id is
+   * read from the result unless it is given.
+   */
+  private static Store readStore(JsonReader json, String id, String addressField)
+      throws IOException {
+    String name = null;
+    String address = null;
+    Boolean open = null;
+    LatLng location = null;
+    double rating = 0;
+    json.beginObject();
+    while (json.hasNext()) {
+      String field = json.nextName();
+      if (field.equals("place_id") && id == null) {
+        id = readString(json);
+      } else if (field.equals("name")) {
+        name = readString(json);
+      } else if (field.equals(addressField)) {
+        address = readString(json);
+      } else if (field.equals("geometry")) {
+        location = readGeometry(json);
+      } else if (field.equals("rating") && json.peek() != JsonToken.NULL) {
+        rating = json.nextDouble();
+      } else if (field.equals("opening_hours") && json.peek() == JsonToken.BEGIN_OBJECT) {
+        open = readOpenNow(json);
+      } else {
+        json.skipValue();
+      }
+    }
+    json.endObject();
+
+    // The same fields are required as when the whole response was parsed.
+    if (id == null || name == null || address == null || location == null) {
+      throw new IOException("Incomplete store in the Places response.");
+    }
+    return new Store(id, name, address, open, location, rating);
+  }
+
+  /** Read the open now flag of the opening hours, or null if it is not given. */
+  private static Boolean readOpenNow(JsonReader json) throws IOException {
+    Boolean open = null;
+    json.beginObject();
+    while (json.hasNext()) {
+      if (json.nextName().equals("open_now") && json.peek() == JsonToken.BOOLEAN) {
+        open = json.nextBoolean();
+      } else {
+        json.skipValue();
+      }
+    }
+    json.endObject();
+    return open;
+  }
+
+  /** Read the location of a geometry object, or null if it has none. */
+  private static LatLng readGeometry(JsonReader json) throws IOException {
+    LatLng location = null;
+    json.beginObject();
+    while (json.hasNext()) {
+      if (!json.nextName().equals("location")) {
+        json.skipValue();
+        continue;
+      }
+      Double lat = null;
+      Double lng = null;
+      json.beginObject();
+      while (json.hasNext()) {
+        switch (json.nextName()) {
+          case "lat":
+            lat = json.nextDouble();
+            break;
+          case "lng":
+            lng = json.nextDouble();
+            break;
+          default:
+            json.skipValue();
+        }
+      }
+      json.endObject();
+      if (lat != null && lng != null) {
+        location = new LatLng(lat, lng);
+      }
+    }
+    json.endObject();
+    return location;
+  }
+
+  /** Read a string value, or null if the value is null. */
+  private static String readString(JsonReader json) throws IOException {
+    if (json.peek() == JsonToken.NULL) {
+      json.nextNull();
+      return null;
+    }
+    return json.nextString();
+  }
+}
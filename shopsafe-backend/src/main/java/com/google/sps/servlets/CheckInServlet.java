@@ -14,9 +14,15 @@
 
 package com.google.sps.servlets;
 
+import com.google.appengine.api.ThreadManager;
+import com.google.sps.data.CheckIn;
+import com.google.sps.data.CheckInQueue;
 import com.google.sps.data.StoreDatastoreHandler;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.logging.Logger;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -26,6 +32,42 @@ import javax.servlet.http.HttpServletResponse;
 @WebServlet("/checkin")
 public class CheckInServlet extends HttpServlet {
 
+  private static final Logger logger = Logger.getLogger(CheckInServlet.class.getName());
+
+  // Whether check ins are acknowledged once queued and written to datastore in the background.
+  // The queue is flushed on a background thread, which needs manual or basic scaling.
+  private static final boolean WRITE_BEHIND = Boolean.getBoolean("shopsafe.checkin.writeBehind");
+
+  // Sizes of the check in queue, how often it is flushed and how often a check in is tried.
+  private static final int QUEUE_SIZE = Integer.getInteger("shopsafe.checkin.queueSize", 1000);
+  private static final long FLUSH_MILLIS = Long.getLong("shopsafe.checkin.flushMillis", 200);
+  private static final int BATCH_SIZE = Integer.getInteger("shopsafe.checkin.batchSize", 100);
+  private static final int FLUSH_ATTEMPTS = Integer.getInteger("shopsafe.checkin.flushAttempts", 3);
+
+  // When the queue is full, reject check ins instead of writing them in the request.
+  private static final boolean REJECT_WHEN_FULL =
+      Boolean.getBoolean("shopsafe.checkin.rejectWhenFull");
+
+  // Queue of check ins to write, or null if they are written in the request.
+  private CheckInQueue checkInQueue;
+
+  /** Start the check in queue, if check ins are written behind. */
+  @Override
+  public void init() {
+    if (WRITE_BEHIND) {
+      checkInQueue = new CheckInQueue(QUEUE_SIZE, FLUSH_MILLIS, BATCH_SIZE, FLUSH_ATTEMPTS);
+      checkInQueue.start(ThreadManager.backgroundThreadFactory());
+    }
+  }
+
+  /** Stop the check in queue, writing the check ins still queued. */
+  @Override
+  public void destroy() {
+    if (checkInQueue != null) {
+      checkInQueue.stop();
+    }
+  }
+
   /**
    * Updates datastore to reflect new rating. Request: storeId - valid Places API ID userId
    * RatingField1 - RatingValue1 RatingField2 - RatingValue2
@@ -52,7 +94,35 @@ public class CheckInServlet extends HttpServlet {
     ratingsMap.remove("storeId");
     ratingsMap.remove("userId");
 
+    // If a rating is not a number, return error.
+    CheckIn checkIn;
+    try {
+      checkIn = new CheckIn(placesID, ratingsMap, new Date());
+    } catch (NumberFormatException e) {
+      response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+      response.setContentType("text/html;");
+      response.getWriter().println("Ratings must be numbers.");
+      return;
+    }
+
+    // If check ins are written behind, acknowledge the check in once it is queued.
+    if (checkInQueue != null) {
+      if (checkInQueue.offer(checkIn)) {
+        response.setStatus(HttpServletResponse.SC_ACCEPTED);
+        return;
+      }
+
+      // If the queue is full, reject the check in or write it in the request.
+      logger.warning("Check in queue is full: " + checkInQueue);
+      if (REJECT_WHEN_FULL) {
+        response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        response.setContentType("text/html;");
+        response.getWriter().println("Too many check ins, please try again later.");
+        return;
+      }
+    }
+
     // Update Datastore.
-    store.placeStore(ratingsMap);
+    store.placeCheckIns(Collections.singletonList(checkIn));
   }
 }
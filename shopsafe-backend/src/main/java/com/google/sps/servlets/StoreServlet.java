@@ -14,58 +14,81 @@
 
 package com.google.sps.servlets;
 
-import com.google.gson.Gson;
 import com.google.sps.data.CheckInStats;
+import com.google.sps.data.ConditionalResponse;
 import com.google.sps.data.County;
 import com.google.sps.data.CountyStats;
-import com.google.sps.data.LatLng;
+import com.google.sps.data.CountyTables;
+import com.google.sps.data.CovidSeriesTable;
+import com.google.sps.data.DataPoint;
+import com.google.sps.data.ExpiringCache;
+import com.google.sps.data.PlacesKey;
+import com.google.sps.data.RequestContext;
+import com.google.sps.data.ResultJson;
+import com.google.sps.data.SeriesRange;
 import com.google.sps.data.Store;
 import com.google.sps.data.StoreResult;
 import com.google.sps.data.StoreStats;
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileNotFoundException;
+import com.google.sps.data.UpstreamClient;
+import com.google.sps.data.UpstreamJson;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.URL;
-import java.util.Scanner;
+import java.io.Writer;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import org.json.JSONObject;
 
 /** Servlet that returns nearby store information. */
 @WebServlet("/store")
 public class StoreServlet extends HttpServlet {
 
+  private static final Logger logger = Logger.getLogger(StoreServlet.class.getName());
+
   public static final String PLACE_URL =
       "https://maps.googleapis.com/maps/api/place/details/json?place_id=";
   public static final String PLACE_FIELDS = "&fields=name,vicinity,opening_hours,geometry,rating";
-  private static final String PLACE_KEY_LOCATION = "WEB-INF/classes/key.txt";
+  // Details of recently opened stores, by place id.
+  private static final ExpiringCache<String, Store> storeCache =
+      new ExpiringCache<>(
+          Integer.getInteger("shopsafe.details.cacheSize", 10000),
+          TimeUnit.MINUTES.toMillis(Long.getLong("shopsafe.details.ttlMinutes", 15)));
 
-  private String placeKey;
-  private Store store;
+  /** Load the Places API key and start loading the county COVID-19 series in the background. */
+  @Override
+  public void init() {
+    PlacesKey.get();
+    CovidSeriesTable.startRefresher();
+  }
+
+  /** Stop loading the county COVID-19 series. */
+  @Override
+  public void destroy() {
+    CovidSeriesTable.stopRefresher();
+  }
 
   /** For a get request, return all nearby stores. */
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
 
-    // Gets API key for places from shopsafe-backend.
-    try {
-      File myObj = new File(PLACE_KEY_LOCATION);
-      Scanner myReader = new Scanner(myObj);
-      placeKey = "&key=" + myReader.nextLine();
-      myReader.close();
-    } catch (FileNotFoundException e) {
-
-      // If error, print error, set status to bad reuqes, and send error response.
-      e.printStackTrace();
+    // Get the API key for places, kept from the last read of the key file.
+    String placeKey = PlacesKey.get();
+    if (placeKey == null) {
+
+      // If there is no key, set status to bad request and send error response.
       response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
       response.setContentType("text/html;");
       response.getWriter().println("Failed to get api key.");
       return;
     }
+    RequestContext context = new RequestContext("&key=" + placeKey);
 
     // Get id from request.
     String id = request.getParameter("id");
@@ -78,8 +101,34 @@ public class StoreServlet extends HttpServlet {
       return;
     }
 
+    // Get the date range and resolution of the charts, by default every day of the last days.
+    SeriesRange seriesRange;
+    try {
+      String from = request.getParameter("from");
+      String to = request.getParameter("to");
+      String resolution = request.getParameter("resolution");
+      seriesRange =
+          SeriesRange.withDefaults(
+              from == null ? null : LocalDate.parse(from),
+              to == null ? null : LocalDate.parse(to),
+              resolution == null
+                  ? SeriesRange.Resolution.DAY
+                  : SeriesRange.Resolution.valueOf(resolution.toUpperCase()),
+              LocalDate.now());
+    } catch (IllegalArgumentException | DateTimeParseException e) {
+
+      // If the range is not valid, set status to bad request and send error response.
+      response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+      response.setContentType("text/html;");
+      response
+          .getWriter()
+          .println("Invalid chart range, use yyyy-mm-dd dates and day, week or month resolution.");
+      return;
+    }
+
     // Get store based on id in form of the Store class.
-    if (!getStoreFromId(id)) {
+    Store store = getStoreFromId(context, id);
+    if (store == null) {
       response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
       response.setContentType("text/html;");
       response.getWriter().println("Failed to get store information for the id: " + id);
@@ -113,58 +162,77 @@ public class StoreServlet extends HttpServlet {
     // Get reviews for a store.
     CheckInStats checkInStats = new CheckInStats(id);
 
+    // If the client already has the response for the current versions, do not build it again.
+    String entityTag = getEntityTag(request, store, countyStats, checkInStats);
+    if (ConditionalResponse.isNotModified(request, response, entityTag)) {
+      return;
+    }
+
     // Add score and review stats to the store.
     StoreStats storeStats = new StoreStats(store, countyStats.getCountyScore(), checkInStats);
 
+    // Keep the points of the charts in the range, one per period.
+    countyStats.setCovidData(seriesRange.apply(countyStats.getCovidData()));
+    HashMap<String, ArrayList<DataPoint>> ratingDays = checkInStats.compileRatingDays();
+    ratingDays.replaceAll((category, points) -> seriesRange.apply(points));
+
     // Return store with stats and the county information.
-    Gson gson = new Gson();
     response.setContentType("application/json;");
-    response
-        .getWriter()
-        .println(
-            gson.toJson(
-                new StoreResult(storeStats, countyStats, checkInStats.compileRatingDays())));
+    try (Writer writer = ConditionalResponse.openWriter(request, response, entityTag)) {
+      ResultJson.write(new StoreResult(storeStats, countyStats, ratingDays), writer);
+    }
+  }
+
+  /**
+   * Returns the entity tag of the store response, built from the chart range, the store details,
+   * the county stats up to their latest day of COVID-19 data, the county percentiles and the check
+   * in stats of the store.
+   */
+  private static String getEntityTag(
+      HttpServletRequest request, Store store, CountyStats countyStats, CheckInStats checkInStats) {
+    List<Object> versions = new ArrayList<>();
+    versions.add(request.getParameter("from"));
+    versions.add(request.getParameter("to"));
+    versions.add(request.getParameter("resolution"));
+    versions.add(store.getId());
+    versions.add(store.getName());
+    versions.add(store.getAddress());
+    versions.add(store.getOpen());
+    versions.add(store.getLatitude());
+    versions.add(store.getLongitude());
+    versions.add(store.getRating());
+    versions.add(countyStats.getCountyFips());
+    versions.add(countyStats.getPopulation());
+    versions.add(countyStats.getCases());
+    versions.add(countyStats.getDeaths());
+    List<DataPoint> covidData = countyStats.getCovidData();
+    versions.add(covidData.isEmpty() ? null : covidData.get(covidData.size() - 1).getDate());
+    versions.add(CountyTables.getInstance().getPercentileDate());
+    versions.addAll(checkInStats.getVersions());
+    return ConditionalResponse.getEntityTag(request, versions.toArray());
+  }
+
+  /** Get store based on the id, or return null if it could not be found. */
+  public Store getStoreFromId(RequestContext context, String id) {
+    return storeCache.get(id, placeId -> getStoreFromPlaces(context, placeId));
   }
 
-  /** Get store based on the id, return true for success. */
-  public boolean getStoreFromId(String id) {
+  /** Get store based on the id from the Places API, or return null if it could not be found. */
+  private Store getStoreFromPlaces(RequestContext context, String id) {
 
     // Try to get store based on id from Places API.
     try {
 
-      // Read response of call to FCC API given lat and lng.
-      URL url = new URL(PLACE_URL + id + PLACE_FIELDS + placeKey);
-      BufferedReader reader = new BufferedReader(new InputStreamReader(url.openStream()));
-
-      // Store response in json, by reading each line.
-      StringBuilder json = new StringBuilder();
-      String line;
-      while ((line = reader.readLine()) != null) {
-        json.append(line);
-      }
-      reader.close();
-
-      // Convert json to json object with just the one store.
-      JSONObject result = new JSONObject(new String(json)).getJSONObject("result");
-      JSONObject storeLocation = result.getJSONObject("geometry").getJSONObject("location");
-
-      store =
-          new Store(
-              id,
-              result.getString("name"),
-              result.getString("vicinity"),
-              (result.has("opening_hours"))
-                  ? result.getJSONObject("opening_hours").getBoolean("open_now")
-                  : null,
-              new LatLng(storeLocation.getDouble("lat"), storeLocation.getDouble("lng")),
-              result.has("rating") ? result.getDouble("rating") : 0);
-      return true;
+      // Read the store from the response of call to Places API given the id.
+      return UpstreamClient.getInstance()
+          .get(
+              PLACE_URL + id + PLACE_FIELDS + context.getPlaceKey(),
+              reader -> UpstreamJson.readDetailsStore(reader, id));
     } catch (Exception e) {
 
-      // If error, print error, log error, and return false.
-      e.printStackTrace();
-      System.out.println("Error in getting store from Places API.");
-      return false;
+      // If error, log error, and return null.
+      logger.log(Level.SEVERE, "Error in getting store from Places API.", e);
+      return null;
     }
   }
 }
@@ -15,72 +15,119 @@
 package com.google.sps.servlets;
 
 import com.google.appengine.api.ThreadManager;
-import com.google.gson.Gson;
+import com.google.sps.data.BoundedExecutor;
 import com.google.sps.data.CheckInStats;
+import com.google.sps.data.ConditionalResponse;
 import com.google.sps.data.County;
 import com.google.sps.data.CountyPercentile;
+import com.google.sps.data.CountyTables;
+import com.google.sps.data.ExpiringCache;
 import com.google.sps.data.LatLng;
+import com.google.sps.data.PlacesKey;
+import com.google.sps.data.RequestContext;
+import com.google.sps.data.ResultJson;
 import com.google.sps.data.Store;
 import com.google.sps.data.StoreStats;
 import com.google.sps.data.StoresResult;
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileNotFoundException;
+import com.google.sps.data.UpstreamClient;
+import com.google.sps.data.UpstreamJson;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.URL;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Scanner;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import org.json.JSONArray;
-import org.json.JSONObject;
 
 /** Servlet that returns nearby store information. */
 @WebServlet("/stores")
 public class StoresServlet extends HttpServlet {
 
+  private static final Logger logger = Logger.getLogger(StoresServlet.class.getName());
+
   // Constants for API calls and key reading.
   public static final String PLACE_URL =
       "https://maps.googleapis.com/maps/api/place/textsearch/json?query=grocery+store&location=";
   public static final String PLACE_RANK = "&radius=10&rankby=prominence";
   public static final String GEOCODE_URL =
       "https://maps.googleapis.com/maps/api/geocode/json?address=";
-  private static final String PLACE_KEY_LOCATION = "WEB-INF/classes/key.txt";
+  // Size of the background executor that searches grid cells again.
+  private static final int REFRESH_THREADS =
+      Integer.getInteger("shopsafe.stores.refreshThreads", 4);
+  private static final int REFRESH_QUEUE = Integer.getInteger("shopsafe.stores.refreshQueue", 64);
+
+  // Geocoded locations of recently searched addresses.
+  private static final ExpiringCache<String, LatLng> geocodeCache =
+      new ExpiringCache<>(
+          Integer.getInteger("shopsafe.geocode.cacheSize", 10000),
+          TimeUnit.MINUTES.toMillis(Long.getLong("shopsafe.geocode.ttlMinutes", 1440)));
+
+  // Stores found near recently searched grid cells, and the cells whose open now flags are fresh.
+  private static final double CELL_DEGREES =
+      Double.parseDouble(System.getProperty("shopsafe.places.cellDegrees", "0.01"));
+  private static final int PLACES_CACHE_SIZE =
+      Integer.getInteger("shopsafe.places.cacheSize", 5000);
+  private static final ExpiringCache<String, List<Store>> storesCache =
+      new ExpiringCache<>(
+          PLACES_CACHE_SIZE,
+          TimeUnit.MINUTES.toMillis(Long.getLong("shopsafe.places.ttlMinutes", 1440)));
+  private static final ExpiringCache<String, Boolean> openNowCache =
+      new ExpiringCache<>(
+          PLACES_CACHE_SIZE,
+          TimeUnit.MINUTES.toMillis(Long.getLong("shopsafe.places.openNowMinutes", 15)));
+  private static final Set<String> refreshingCells = ConcurrentHashMap.newKeySet();
+
+  // Executor for the grid cell searches that outlive the request that started them.
+  private BoundedExecutor refreshExecutor;
+
+  /**
+   * Load the Places API key, create the refresh executor and start updating the county
+   * percentiles in the background.
+   */
+  @Override
+  public void init() {
+    PlacesKey.get();
+    refreshExecutor =
+        new BoundedExecutor(
+            "stores-refresh",
+            REFRESH_THREADS,
+            REFRESH_QUEUE,
+            ThreadManager.backgroundThreadFactory());
+    CountyPercentile.startRefresher();
+  }
 
-  // Globals used to make code more modular.
-  private String placeKey;
-  private LatLng userLocation;
+  /** Stop the refresh executor and the county percentile updates. */
+  @Override
+  public void destroy() {
+    refreshExecutor.shutdown();
+    CountyPercentile.stopRefresher();
+  }
 
   /** For a get request, return all nearby stores. */
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
 
-    // Gets API key for places from shopsafe-backend.
-    try {
-      File myObj = new File(PLACE_KEY_LOCATION);
-      Scanner myReader = new Scanner(myObj);
-      placeKey = "&key=" + myReader.nextLine();
-      myReader.close();
-    } catch (FileNotFoundException e) {
-
-      // If error, print error, and set status to bad reuqest and send error response.
-      e.printStackTrace();
+    // Get the API key for places, kept from the last read of the key file.
+    String placeKey = PlacesKey.get();
+    if (placeKey == null) {
+
+      // If there is no key, set status to bad request and send error response.
       response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
       response.setContentType("text/html;");
       response.getWriter().println("Failed to get api key.");
       return;
     }
-
-    // Update the county percentile file, if necessary.
-    CountyPercentile.updatePercentileFile();
+    RequestContext keyContext = new RequestContext("&key=" + placeKey);
 
     // Get the address input from the param.
     String address = request.getParameter("location");
@@ -102,6 +149,7 @@ public class StoresServlet extends HttpServlet {
     }
 
     // Set userLocation based on location if that "latlng" is true, otherwise geocode the address.
+    LatLng userLocation;
     if (Boolean.valueOf(request.getParameter("latlng"))) {
       String[] latLngArray = address.split(",");
 
@@ -120,7 +168,6 @@ public class StoresServlet extends HttpServlet {
         userLocation =
             new LatLng(Double.parseDouble(latLngArray[0]), Double.parseDouble(latLngArray[1]));
       } catch (NumberFormatException e) {
-        e.printStackTrace();
         response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
         response.setContentType("text/html;");
         response
@@ -130,7 +177,8 @@ public class StoresServlet extends HttpServlet {
       }
 
     } else {
-      if (!getLatLngFromAddress(address)) {
+      userLocation = getLatLngFromAddress(keyContext, address);
+      if (userLocation == null) {
         response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
         response.setContentType("text/html;");
         response.getWriter().println("Failed to find the location of: " + address);
@@ -138,30 +186,64 @@ public class StoresServlet extends HttpServlet {
       }
     }
 
+    // Everything the rest of the request needs, in a context shared by the store lookups.
+    RequestContext context = keyContext.withUserLocation(userLocation);
+
     // Get all grocery stores based on LatLng and migrate to the Store class.
-    List<Store> stores = getStores();
+    List<Store> stores = getStores(context);
 
-    // Create Hash Map and Queue for concurrent.
-    ConcurrentHashMap<String, Double> countyScores = new ConcurrentHashMap();
-    ConcurrentLinkedQueue<StoreStats> storeStats = new ConcurrentLinkedQueue();
+    // Read the check in stats of all the stores together, they are part of the version.
+    List<String> storeIds = new ArrayList<>();
+    for (Store store : stores) {
+      storeIds.add(store.getId());
+    }
+    Map<String, CheckInStats> checkInStats;
+    try {
+      checkInStats = CheckInStats.getCheckInStats(storeIds);
+    } catch (RuntimeException e) {
 
-    // Create Thread Factory Scoped to request.
-    int count = stores.size();
-    ThreadFactory factory = ThreadManager.currentRequestThreadFactory();
-    ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(count, factory);
+      // If error, log it, each store reads its own stats and the response has no tag.
+      logger.log(Level.SEVERE, "Failed to read the check in stats of the stores.", e);
+      checkInStats = new HashMap<>();
+    }
 
-    // For every store, get reviews and county data and add scores to the store.
-    for (int i = 0; i < count; i++) {
-      Store store = stores.get(i);
+    // If the client already has the response for the current versions, do not look up stores.
+    String entityTag = getEntityTag(request, userLocation, stores, checkInStats);
+    if (entityTag != null && ConditionalResponse.isNotModified(request, response, entityTag)) {
+      return;
+    }
 
-      // Run thread for each store
-      pool.execute(() -> addStore(store, countyScores, storeStats));
+    // Score the stores in the county boundaries here, they are found in memory.
+    ConcurrentHashMap<String, Double> countyScores = new ConcurrentHashMap();
+    Double[] storeCountyScores = new Double[stores.size()];
+    List<Integer> fallbackStores = new ArrayList<>();
+    for (int i = 0; i < stores.size(); i++) {
+      County county = County.getBoundaryCounty(stores.get(i));
+      if (county == null) {
+        fallbackStores.add(i);
+      } else {
+        storeCountyScores[i] = getStoreCountyScore(stores.get(i), county, countyScores);
+      }
     }
-    pool.shutdown();
 
-    // Continue until all threads have terminated.
-    while (!pool.isTerminated()) {
-      continue;
+    // Ask the FCC api for the counties of the other stores.
+    scoreFallbackStores(stores, fallbackStores, countyScores, storeCountyScores);
+
+    // Keep the valid stores in their original order.
+    List<StoreStats> storeStats = new ArrayList<>();
+    for (int i = 0; i < stores.size(); i++) {
+      Double countyScore = storeCountyScores[i];
+      if (countyScore == null) {
+        continue;
+      }
+
+      // Add score and review stats to the store, reading them on their own if the batch failed.
+      Store store = stores.get(i);
+      CheckInStats stats = checkInStats.get(store.getId());
+      if (stats == null) {
+        stats = new CheckInStats(store.getId());
+      }
+      storeStats.add(new StoreStats(store, countyScore, stats, userLocation));
     }
 
     // If there are no valid stores found, set status to bad reuqest and send error response.
@@ -173,104 +255,182 @@ public class StoresServlet extends HttpServlet {
     }
 
     // Return stores with scores and userLocation as json as StoresResult.
-    Gson gson = new Gson();
     response.setContentType("application/json;");
-    response
-        .getWriter()
-        .println(gson.toJson(new StoresResult(new ArrayList(storeStats), userLocation)));
+    try (Writer writer = ConditionalResponse.openWriter(request, response, entityTag)) {
+      ResultJson.write(new StoresResult(storeStats, userLocation), writer);
+    }
   }
 
-  /*
-   * Populate StoreStats object and add to storeStats
+  /**
+   * Returns the entity tag of the stores response, built from the user location, the county
+   * percentiles, and the details and check in stats of every store. Returns null if the check in
+   * stats of a store are missing and the response has no known version.
    */
-  private void addStore(
-      Store store,
+  private static String getEntityTag(
+      HttpServletRequest request,
+      LatLng userLocation,
+      List<Store> stores,
+      Map<String, CheckInStats> checkInStats) {
+    List<Object> versions = new ArrayList<>();
+    versions.add(userLocation.getLatitude());
+    versions.add(userLocation.getLongitude());
+    versions.add(CountyTables.getInstance().getPercentileDate());
+    for (Store store : stores) {
+      CheckInStats stats = checkInStats.get(store.getId());
+      if (stats == null) {
+        return null;
+      }
+      versions.add(store.getId());
+      versions.add(store.getName());
+      versions.add(store.getAddress());
+      versions.add(store.getOpen());
+      versions.add(store.getLatitude());
+      versions.add(store.getLongitude());
+      versions.add(store.getRating());
+      versions.addAll(stats.getVersions());
+    }
+    return ConditionalResponse.getEntityTag(request, versions.toArray());
+  }
+
+  /**
+   * Scores the stores at the given indexes with counties from the FCC api. A single store is looked
+   * up here, more are looked up at the same time with the async api of the upstream client.
+   */
+  private static void scoreFallbackStores(
+      List<Store> stores,
+      List<Integer> fallbackStores,
       ConcurrentHashMap<String, Double> countyScores,
-      ConcurrentLinkedQueue<StoreStats> storeStats) {
+      Double[] storeCountyScores) {
+    if (fallbackStores.size() <= 1) {
+      for (int i : fallbackStores) {
+        storeCountyScores[i] = getFallbackCountyScore(stores.get(i), countyScores);
+      }
+      return;
+    }
+    List<CompletableFuture<County>> counties = new ArrayList<>();
+    for (int i : fallbackStores) {
+      counties.add(County.getFallbackCountyAsync(stores.get(i)));
+    }
+    for (int j = 0; j < fallbackStores.size(); j++) {
+      Store store = stores.get(fallbackStores.get(j));
+      storeCountyScores[fallbackStores.get(j)] =
+          getStoreCountyScore(store, counties.get(j).join(), countyScores);
+    }
+    logger.fine("Upstream calls: " + UpstreamClient.getInstance());
+  }
+
+  /** Returns the county score of a store from the FCC api, or null if the store has no county. */
+  private static Double getFallbackCountyScore(
+      Store store, ConcurrentHashMap<String, Double> countyScores) {
+    return getStoreCountyScore(store, County.getFallbackCounty(store), countyScores);
+  }
 
-    // Get county based on location of the store
-    County county = County.getCounty(store);
+  /** Returns the county score of a store, or null if the store has no county. */
+  private static Double getStoreCountyScore(
+      Store store, County county, ConcurrentHashMap<String, Double> countyScores) {
 
     // If the county was not found, log error message and don't add the store.
     if (county.getCountyName() == "") {
-      System.out.println("Failed to get county information for store id: " + store.getId());
-      return;
+      logger.warning("Failed to get county information for store id: " + store.getId());
+      return null;
     }
 
     // If county not in hashmap, calculate score and add to hashmap.
-    if (!countyScores.containsKey(county.getCountyFips())) {
-      countyScores.put(county.getCountyFips(), county.getCountyScore());
+    return countyScores.computeIfAbsent(county.getCountyFips(), fips -> county.getCountyScore());
+  }
+
+  /** Returns a list of Stores without scores near the user location of the context. */
+  public List<Store> getStores(RequestContext context) {
+
+    // If the grid cell of the user was searched recently, return the same stores.
+    LatLng userLocation = context.getUserLocation();
+    String cell = getCell(userLocation);
+    List<Store> cachedStores = storesCache.get(cell);
+    if (cachedStores != null) {
+
+      // If their open now flags are old, search the cell again in the background.
+      // If the refresh executor is full, the next request tries again.
+      if (openNowCache.get(cell) == null
+          && refreshingCells.add(cell)
+          && refreshExecutor.offer(() -> refreshStores(context, cell)) == null) {
+        refreshingCells.remove(cell);
+        logger.warning("Refresh executor is full: " + refreshExecutor);
+      }
+      return cachedStores;
     }
 
-    // Get check in stats for a store.
-    CheckInStats checkInStats = new CheckInStats(store.getId());
+    // Otherwise, search from the center of the cell so the stores can be shared by the cell.
+    // Empty results are not cached, as quota and key errors also return no stores.
+    List<Store> stores = new ArrayList<>();
+    if (searchStores(context, getCellCenter(userLocation), stores) && !stores.isEmpty()) {
+      cacheStores(cell, stores);
+    }
+    return stores;
+  }
 
-    // Add score and review stats to the store.
-    storeStats.add(
-        new StoreStats(
-            store, countyScores.get(county.getCountyFips()), checkInStats, userLocation));
+  /** Search a grid cell again to update the open now flags of its stores. */
+  private Void refreshStores(RequestContext context, String cell) {
+    try {
+      List<Store> stores = new ArrayList<>();
+      if (searchStores(context, getCellCenter(context.getUserLocation()), stores)
+          && !stores.isEmpty()) {
+        cacheStores(cell, stores);
+      }
+    } finally {
+      refreshingCells.remove(cell);
+    }
+    return null;
   }
 
-  /** Returns a list of Stores without scores. */
-  public List<Store> getStores() {
+  /** Cache the stores of a grid cell, with fresh open now flags. */
+  private static void cacheStores(String cell, List<Store> stores) {
+    storesCache.put(cell, Collections.unmodifiableList(new ArrayList<>(stores)));
+    openNowCache.put(cell, Boolean.TRUE);
+  }
 
-    // List of stores that will be returned, it will be empty if there is an exception.
-    List<Store> stores = new ArrayList<>();
+  /** Add the stores the Places API finds near the location, return true for success. */
+  private boolean searchStores(RequestContext context, LatLng location, List<Store> stores) {
     try {
 
-      // Read response of call to FCC API given lat and lng.
-      URL url =
-          new URL(
+      // Read the stores as the response of call to Places API given lat and lng arrives.
+      UpstreamClient.getInstance()
+          .get(
               PLACE_URL
-                  + userLocation.getLatitude()
+                  + location.getLatitude()
                   + ","
-                  + userLocation.getLongitude()
+                  + location.getLongitude()
                   + PLACE_RANK
-                  + placeKey);
-      BufferedReader reader = new BufferedReader(new InputStreamReader(url.openStream()));
-
-      // Store response in json, by reading each line.
-      StringBuilder json = new StringBuilder();
-      String line;
-      while ((line = reader.readLine()) != null) {
-        json.append(line);
-      }
-      reader.close();
-
-      // Convert json to json object with just the first result.
-      JSONArray results = new JSONObject(new String(json)).getJSONArray("results");
-
-      // For every result, add store to the store list.
-      int count = results.length();
-      for (int i = 0; i < count; i++) {
-
-        JSONObject store = results.getJSONObject(i);
-        JSONObject storeLocation = store.getJSONObject("geometry").getJSONObject("location");
-
-        stores.add(
-            new Store(
-                store.getString("place_id"),
-                store.getString("name"),
-                store.getString("formatted_address"),
-                (store.has("opening_hours") && store.getJSONObject("opening_hours").has("open_now"))
-                    ? store.getJSONObject("opening_hours").getBoolean("open_now")
-                    : null,
-                new LatLng(storeLocation.getDouble("lat"), storeLocation.getDouble("lng")),
-                store.has("rating") ? store.getDouble("rating") : 0));
-      }
+                  + context.getPlaceKey(),
+              reader -> {
+                UpstreamJson.readSearchStores(reader, stores);
+                return null;
+              });
 
-      // Return county using strings from the results.
-      return stores;
+      return true;
     } catch (Exception e) {
 
-      // If error, print error, and return the valid stores.
-      e.printStackTrace();
-      return stores;
+      // If error, log error, and keep the valid stores.
+      logger.log(Level.SEVERE, "Failed to search for stores near the location.", e);
+      return false;
     }
   }
 
-  /** Updates the userLocation latlng and return boolean for success. */
-  public boolean getLatLngFromAddress(String address) {
+  /** Returns the key of the grid cell that contains the location. */
+  private static String getCell(LatLng location) {
+    return (long) Math.floor(location.getLatitude() / CELL_DEGREES)
+        + ":"
+        + (long) Math.floor(location.getLongitude() / CELL_DEGREES);
+  }
+
+  /** Returns the center of the grid cell that contains the location. */
+  private static LatLng getCellCenter(LatLng location) {
+    return new LatLng(
+        (Math.floor(location.getLatitude() / CELL_DEGREES) + 0.5) * CELL_DEGREES,
+        (Math.floor(location.getLongitude() / CELL_DEGREES) + 0.5) * CELL_DEGREES);
+  }
+
+  /** Returns the LatLng of an address, or null if it could not be found. */
+  public LatLng getLatLngFromAddress(RequestContext context, String address) {
 
     // Get a string array for all the words in the request and get its length.
     String[] addressArray = address.trim().split("\\s+");
@@ -288,37 +448,30 @@ public class StoresServlet extends HttpServlet {
     // Define the address and initialize the location.
     address = new String(addressStringBuilder);
 
+    // If the address was geocoded recently, return the same location.
+    LatLng cachedLocation = geocodeCache.get(address);
+    if (cachedLocation != null) {
+      return cachedLocation;
+    }
+
     // Get LatLng location based on address.
     try {
 
-      // Read response of call to FCC API given lat and lng.
-      URL url = new URL(GEOCODE_URL + address + placeKey);
-      BufferedReader reader = new BufferedReader(new InputStreamReader(url.openStream()));
+      // Read the location from the response of call to Geocoding API given the address.
+      String url = GEOCODE_URL + address + context.getPlaceKey();
+      LatLng location = UpstreamClient.getInstance().get(url, UpstreamJson::readGeocodeLocation);
 
-      // Store response in json, by reading each line.
-      StringBuilder json = new StringBuilder();
-      String line;
-      while ((line = reader.readLine()) != null) {
-        json.append(line);
+      // If there are no results, return null without caching it.
+      if (location == null) {
+        return null;
       }
-      reader.close();
-
-      // Convert json to json object with just the json location, then convert to LatLng.
-      JSONObject jsonLocation =
-          new JSONObject(new String(json))
-              .getJSONArray("results")
-              .getJSONObject(0)
-              .getJSONObject("geometry")
-              .getJSONObject("location");
-      userLocation = new LatLng(jsonLocation.getDouble("lat"), jsonLocation.getDouble("lng"));
-
-      // Return true for success.
-      return true;
+      geocodeCache.put(address, location);
+      return location;
     } catch (Exception e) {
 
-      // If error, print error, and return false.
-      e.printStackTrace();
-      return false;
+      // If error, log error, and return null.
+      logger.log(Level.SEVERE, "Failed to geocode the address: " + address, e);
+      return null;
     }
   }
 }
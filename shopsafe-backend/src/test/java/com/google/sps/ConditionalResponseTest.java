@@ -0,0 +1,75 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import static org.mockito.Mockito.when;
+
+import com.google.sps.data.ConditionalResponse;
+import java.time.LocalDate;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mockito;
+
+/** Class that tests entity tags, conditional gets and gzip negotiation. */
+@RunWith(JUnit4.class)
+public final class ConditionalResponseTest {
+
+  /** The same versions should give the same tag, and a changed version a different one. */
+  @Test
+  public void tagFollowsVersions() {
+    HttpServletRequest request = Mockito.mock(HttpServletRequest.class);
+    LocalDate date = LocalDate.parse("2020-08-01");
+
+    String tag = ConditionalResponse.getEntityTag(request, "store", 3L, date);
+
+    Assert.assertEquals(tag, ConditionalResponse.getEntityTag(request, "store", 3L, date));
+    Assert.assertNotEquals(tag, ConditionalResponse.getEntityTag(request, "store", 4L, date));
+    Assert.assertTrue(tag.startsWith("\"") && tag.endsWith("\""));
+  }
+
+  /** Compressed responses should only be tagged as such when gzip is accepted. */
+  @Test
+  public void negotiateGzip() {
+    HttpServletRequest request = Mockito.mock(HttpServletRequest.class);
+
+    when(request.getHeader("Accept-Encoding")).thenReturn("deflate, gzip;q=0.8");
+    Assert.assertTrue(ConditionalResponse.getEntityTag(request, "store").endsWith("-gzip\""));
+
+    when(request.getHeader("Accept-Encoding")).thenReturn("*, gzip;q=0");
+    Assert.assertFalse(ConditionalResponse.getEntityTag(request, "store").endsWith("-gzip\""));
+
+    when(request.getHeader("Accept-Encoding")).thenReturn("identity, *");
+    Assert.assertTrue(ConditionalResponse.getEntityTag(request, "store").endsWith("-gzip\""));
+  }
+
+  /** A matching If-None-Match should send not modified, any other should not. */
+  @Test
+  public void notModifiedOnlyForMatchingTag() {
+    HttpServletRequest request = Mockito.mock(HttpServletRequest.class);
+    HttpServletResponse response = Mockito.mock(HttpServletResponse.class);
+    String tag = ConditionalResponse.getEntityTag(request, "store");
+
+    when(request.getHeader("If-None-Match")).thenReturn("\"other\"");
+    Assert.assertFalse(ConditionalResponse.isNotModified(request, response, tag));
+
+    when(request.getHeader("If-None-Match")).thenReturn("\"other\", W/" + tag);
+    Assert.assertTrue(ConditionalResponse.isNotModified(request, response, tag));
+    Mockito.verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+  }
+}
@@ -0,0 +1,153 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.sps.data.County;
+import com.google.sps.data.CountyBoundaries;
+import com.google.sps.tools.CountyBoundariesGenerator;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Class that tests finding counties from the county boundaries. */
+@RunWith(JUnit4.class)
+public final class CountyBoundariesTest {
+
+  // Two neighboring square counties, the second with a square hole in its center.
+  private static final String BOUNDARIES =
+      "county_fips,county_name,state_name,ring\n"
+          + "42027,Centre,Pennsylvania,\"-78 40,-77 40,-77 41,-78 41\"\n"
+          + "42033,Clearfield,Pennsylvania,\"-77 40,-75 40,-75 42,-77 42\"\n"
+          + "42033,Clearfield,Pennsylvania,\"-76.5 40.5,-75.5 40.5,-75.5 41.5,-76.5 41.5\"\n";
+
+  // Location of the checked in boundaries, relative to the test working directory.
+  private static final String GENERATED_LOCATION = "WEB-INF/classes/county_boundaries.csv";
+
+  // A county placemark of the Census KML, the second county with the hole of the test boundaries.
+  private static final String KML =
+      "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+          + "<kml xmlns=\"http://www.opengis.net/kml/2.2\"><Document><Folder><Placemark>"
+          + "<ExtendedData><SchemaData schemaUrl=\"#county\">"
+          + "<SimpleData name=\"STATEFP\">42</SimpleData>"
+          + "<SimpleData name=\"GEOID\">42033</SimpleData>"
+          + "<SimpleData name=\"NAME\">Clearfield</SimpleData>"
+          + "</SchemaData></ExtendedData><Polygon>"
+          + "<outerBoundaryIs><LinearRing><coordinates>"
+          + "-77,40,0 -75,40,0 -75,42,0 -77,42,0 -77,40,0"
+          + "</coordinates></LinearRing></outerBoundaryIs>"
+          + "<innerBoundaryIs><LinearRing><coordinates>"
+          + "-76.5,40.5,0 -75.5,40.5,0 -75.5,41.5,0 -76.5,41.5,0 -76.5,40.5,0"
+          + "</coordinates></LinearRing></innerBoundaryIs>"
+          + "</Polygon></Placemark></Folder></Document></kml>";
+
+  private CountyBoundaries boundaries;
+
+  @Before
+  public void setUp() throws IOException {
+    boundaries = CountyBoundaries.load(new StringReader(BOUNDARIES));
+  }
+
+  /** Both counties should be loaded, with the two rings of the second grouped together. */
+  @Test
+  public void loadCounties() {
+    Assert.assertEquals(2, boundaries.size());
+  }
+
+  /** A location inside the first county should return that county. */
+  @Test
+  public void locationInCounty() {
+    County county = boundaries.getCounty(40.5, -77.5);
+    Assert.assertEquals("Centre", county.getCountyName());
+    Assert.assertEquals("Pennsylvania", county.getStateName());
+    Assert.assertEquals("42027", county.getCountyFips());
+  }
+
+  /** A location inside the second county, but outside its hole, should return that county. */
+  @Test
+  public void locationInCountyWithHole() {
+    Assert.assertEquals("Clearfield", boundaries.getCounty(41.8, -76.8).getCountyName());
+  }
+
+  /** A location inside the hole of a county should not return a county. */
+  @Test
+  public void locationInHole() {
+    Assert.assertNull(boundaries.getCounty(41.0, -76.0));
+  }
+
+  /** A location outside all the counties should not return a county. */
+  @Test
+  public void locationOutsideCounties() {
+    Assert.assertNull(boundaries.getCounty(43.650300, -79.383785));
+    Assert.assertNull(boundaries.getCounty(1000.0, 1000.0));
+  }
+
+  /** Rings generated from the Census KML should load as the same county, with its hole. */
+  @Test
+  public void generateFromKml() throws Exception {
+    ByteArrayOutputStream zipBytes = new ByteArrayOutputStream();
+    try (ZipOutputStream zip = new ZipOutputStream(zipBytes)) {
+      zip.putNextEntry(new ZipEntry("cb_2019_us_county_500k.kml"));
+      zip.write(KML.getBytes(StandardCharsets.UTF_8));
+      zip.closeEntry();
+    }
+    StringWriter csv = new StringWriter();
+
+    int rings =
+        CountyBoundariesGenerator.generate(
+            new ByteArrayInputStream(zipBytes.toByteArray()),
+            Collections.singletonMap("42", "Pennsylvania"),
+            csv);
+    CountyBoundaries generated = CountyBoundaries.load(new StringReader(csv.toString()));
+
+    Assert.assertEquals(2, rings);
+    Assert.assertEquals(1, generated.size());
+    County county = generated.getCounty(41.8, -76.8);
+    Assert.assertEquals("Clearfield", county.getCountyName());
+    Assert.assertEquals("Pennsylvania", county.getStateName());
+    Assert.assertNull(generated.getCounty(41.0, -76.0));
+  }
+
+  /**
+   * The checked in boundaries should find the counties of known locations. Skipped until they are
+   * generated with the county-boundaries profile and checked in.
+   */
+  @Test
+  public void generatedBoundariesFindCounties() {
+    Assume.assumeTrue(
+        "No county boundaries, see the county-boundaries profile.",
+        new File(GENERATED_LOCATION).exists());
+    CountyBoundaries generated = CountyBoundaries.load(GENERATED_LOCATION);
+
+    Assert.assertTrue(generated.size() > 3000);
+    Assert.assertEquals("42027", generated.getCounty(40.803639, -77.862574).getCountyFips());
+    Assert.assertEquals("06085", generated.getCounty(37.422, -122.084).getCountyFips());
+    Assert.assertEquals("36061", generated.getCounty(40.7831, -73.9712).getCountyFips());
+    Assert.assertEquals("Centre", generated.getCounty(40.803639, -77.862574).getCountyName());
+    Assert.assertNull(generated.getCounty(43.650300, -79.383785));
+  }
+}
@@ -14,21 +14,38 @@
 
 package com.google.sps;
 
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.sps.data.CheckIn;
+import com.google.sps.data.CheckInQueue;
 import com.google.sps.data.CheckInStats;
+import com.google.sps.data.ConditionalResponse;
 import com.google.sps.data.DataPoint;
+import com.google.sps.data.RatingPage;
+import com.google.sps.data.RatingQuery;
 import com.google.sps.data.StoreDatastoreHandler;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import javax.servlet.http.HttpServletRequest;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import org.mockito.Mockito;
 
 /** Class that tests Datastore. */
 @RunWith(JUnit4.class)
@@ -37,6 +54,10 @@ public final class DatastoreTest {
   private final LocalServiceTestHelper helper =
       new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
 
+  // Check ins in a busy batch, more than a shard takes in a minute, and the date of the first one.
+  private static final int BUSY_BATCH = 31;
+  private static final long START_MILLIS = 1590000000000L;
+
   @Before
   public void setUp() {
     helper.setUp();
@@ -181,4 +202,377 @@ public final class DatastoreTest {
     Assert.assertEquals((int) compiledRatings.get("line").get(0).getValue(), 7);
     Assert.assertEquals((int) compiledRatings.get("busy").get(0).getValue(), 7);
   }
+
+  /** Check in stats should average the rating sums kept on the store. */
+  @Test
+  public void checkInStatsFromSums() {
+    String sampleplacesID = "sample1";
+    HashMap<String, String[]> sampleHttpRequestParam = new HashMap();
+    sampleHttpRequestParam.put("busy", new String[] {"9.0"});
+    sampleHttpRequestParam.put("line", new String[] {"6.0"});
+    sampleHttpRequestParam.put("hygiene", new String[] {"6.0"});
+    sampleHttpRequestParam.put("mask", new String[] {"7.0"});
+
+    // Insert two ratings into DataStore.
+    StoreDatastoreHandler store = new StoreDatastoreHandler(sampleplacesID);
+    store.placeStore(sampleHttpRequestParam);
+    HashMap<String, String[]> sampleHttpRequestParam2 = new HashMap();
+    sampleHttpRequestParam2.put("busy", new String[] {"5.0"});
+    sampleHttpRequestParam2.put("line", new String[] {"8.0"});
+    sampleHttpRequestParam2.put("hygiene", new String[] {"10.0"});
+    sampleHttpRequestParam2.put("mask", new String[] {"1.0"});
+    store.placeStore(sampleHttpRequestParam2);
+
+    // The store should hold the count and sums of both ratings.
+    Entity storeEntity = store.getStoreSums();
+    Assert.assertEquals(2L, storeEntity.getProperty("checkInCount"));
+    Assert.assertEquals(14.0, (double) storeEntity.getProperty("busySum"), 0.0001);
+
+    CheckInStats storeStats = new CheckInStats(sampleplacesID);
+    Assert.assertEquals(2, storeStats.getCheckInCount());
+    Assert.assertEquals(7.0, storeStats.getBusy(), 0.0001);
+    Assert.assertEquals(7.0, storeStats.getLine(), 0.0001);
+    Assert.assertEquals(8.0, storeStats.getHygiene(), 0.0001);
+    Assert.assertEquals(4.0, storeStats.getMasks(), 0.0001);
+    store.deleteStoreAndRatings();
+  }
+
+  /** Batch check in stats should match the stats of each store, with defaults for new stores. */
+  @Test
+  public void batchCheckInStats() {
+    HashMap<String, String[]> sampleHttpRequestParam = new HashMap();
+    sampleHttpRequestParam.put("busy", new String[] {"9.0"});
+    sampleHttpRequestParam.put("line", new String[] {"6.0"});
+    sampleHttpRequestParam.put("hygiene", new String[] {"6.0"});
+    sampleHttpRequestParam.put("mask", new String[] {"7.0"});
+
+    // Insert a rating into one of two stores.
+    StoreDatastoreHandler store = new StoreDatastoreHandler("sample1");
+    store.placeStore(sampleHttpRequestParam);
+
+    Map<String, CheckInStats> storeStats =
+        CheckInStats.getCheckInStats(Arrays.asList("sample1", "sample2"));
+
+    Assert.assertEquals(1, storeStats.get("sample1").getCheckInCount());
+    Assert.assertEquals(9.0, storeStats.get("sample1").getBusy(), 0.0001);
+    Assert.assertEquals(0, storeStats.get("sample2").getCheckInCount());
+    Assert.assertEquals(5.0, storeStats.get("sample2").getBusy(), 0.0001);
+    store.deleteStoreAndRatings();
+  }
+
+  /** Ratings placed on the same calendar day should be summed into one day. */
+  @Test
+  public void sumRatingsOfOneDay() {
+    String sampleplacesID = "sample1";
+    HashMap<String, String[]> sampleHttpRequestParam = new HashMap();
+    sampleHttpRequestParam.put("busy", new String[] {"9.0"});
+    sampleHttpRequestParam.put("line", new String[] {"6.0"});
+    sampleHttpRequestParam.put("hygiene", new String[] {"6.0"});
+    sampleHttpRequestParam.put("mask", new String[] {"7.0"});
+
+    // Insert two ratings, both today.
+    StoreDatastoreHandler store = new StoreDatastoreHandler(sampleplacesID);
+    store.placeStore(sampleHttpRequestParam);
+    store.placeStore(sampleHttpRequestParam);
+
+    // The store should have a single day with both ratings.
+    List<Entity> ratingDays = store.getRatingDays();
+    Assert.assertEquals(1, ratingDays.size());
+    Assert.assertEquals(2L, ratingDays.get(0).getProperty("checkInCount"));
+    Assert.assertEquals(18.0, (double) ratingDays.get(0).getProperty("busySum"), 0.0001);
+    store.deleteStoreAndRatings();
+  }
+
+  /** Days of a store that kept only its ratings should be rolled up once and kept. */
+  @Test
+  public void rollUpDaysOfOldStore() throws EntityNotFoundException {
+
+    // Put a store and ratings the way they were kept before the sums and days.
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Entity storeEntity = new Entity("Store", "sample1");
+    datastore.put(storeEntity);
+    for (double busy : new double[] {2.0, 4.0}) {
+      Entity ratingEntity = new Entity("Rating", storeEntity.getKey());
+      ratingEntity.setProperty("busy", busy);
+      ratingEntity.setProperty("Date", new Date(START_MILLIS));
+      ratingEntity.setProperty("User", "Anon");
+      datastore.put(ratingEntity);
+    }
+
+    StoreDatastoreHandler store = new StoreDatastoreHandler("sample1");
+    List<Entity> ratingDays = store.getRatingDays();
+    Assert.assertEquals(1, ratingDays.size());
+    Assert.assertEquals(2L, ratingDays.get(0).getProperty("checkInCount"));
+    Assert.assertEquals(6.0, (double) ratingDays.get(0).getProperty("busySum"), 0.0001);
+
+    // The days should now be kept on the store, and read back the same.
+    Assert.assertEquals(true, datastore.get(storeEntity.getKey()).getProperty("dailyRollups"));
+    Query query = new Query("RatingDay", storeEntity.getKey()).setAncestor(storeEntity.getKey());
+    Assert.assertEquals(
+        1, datastore.prepare(query).countEntities(FetchOptions.Builder.withDefaults()));
+    Assert.assertEquals(2L, store.getRatingDays().get(0).getProperty("checkInCount"));
+    store.deleteStoreAndRatings();
+  }
+
+  /** The current check in score should be the recent ratings smoothed toward the default. */
+  @Test
+  public void currentCheckInScore() {
+    String sampleplacesID = "sample1";
+    HashMap<String, String[]> sampleHttpRequestParam = new HashMap();
+    sampleHttpRequestParam.put("busy", new String[] {"9.0"});
+    sampleHttpRequestParam.put("line", new String[] {"9.0"});
+    sampleHttpRequestParam.put("hygiene", new String[] {"9.0"});
+    sampleHttpRequestParam.put("mask", new String[] {"9.0"});
+
+    // Without check ins, the current score should be the default.
+    Assert.assertEquals(5.0, new CheckInStats(sampleplacesID).getCurrentCheckInScore(), 0.0001);
+
+    // A rating placed just now should count fully, as much as the default score.
+    StoreDatastoreHandler store = new StoreDatastoreHandler(sampleplacesID);
+    store.placeStore(sampleHttpRequestParam);
+    Assert.assertEquals(7.0, new CheckInStats(sampleplacesID).getCurrentCheckInScore(), 0.01);
+    store.deleteStoreAndRatings();
+  }
+
+  /** The entity tag of a store should not change between check ins. */
+  @Test
+  public void sameTagBetweenCheckIns() throws InterruptedException {
+    HttpServletRequest request = Mockito.mock(HttpServletRequest.class);
+    HashMap<String, String[]> sampleHttpRequestParam = new HashMap();
+    sampleHttpRequestParam.put("busy", new String[] {"9.0"});
+    StoreDatastoreHandler store = new StoreDatastoreHandler("sample1");
+    store.placeStore(sampleHttpRequestParam);
+    store.placeStore(sampleHttpRequestParam);
+
+    // The decayed score goes down with time, the tag should not follow it between requests.
+    String tag = getEntityTag(request, "sample1");
+    Thread.sleep(10);
+    Assert.assertEquals(tag, getEntityTag(request, "sample1"));
+
+    // A new check in should change the tag.
+    store.placeStore(sampleHttpRequestParam);
+    Assert.assertNotEquals(tag, getEntityTag(request, "sample1"));
+    store.deleteStoreAndRatings();
+  }
+
+  /** Queued check ins should be written to their stores when the queue is flushed. */
+  @Test
+  public void flushCheckInQueue() {
+    HashMap<String, String[]> sampleHttpRequestParam = new HashMap();
+    sampleHttpRequestParam.put("busy", new String[] {"9.0"});
+
+    // Queue two check ins for one store and one for another.
+    CheckInQueue queue = new CheckInQueue(10, 1000, 100, 3);
+    Assert.assertTrue(queue.offer(new CheckIn("sample1", sampleHttpRequestParam, new Date())));
+    Assert.assertTrue(queue.offer(new CheckIn("sample1", sampleHttpRequestParam, new Date())));
+    Assert.assertTrue(queue.offer(new CheckIn("sample2", sampleHttpRequestParam, new Date())));
+    Assert.assertEquals(3, queue.getDepth());
+
+    queue.flush();
+
+    Assert.assertEquals(0, queue.getDepth());
+    Assert.assertEquals(3, queue.getWrittenCount());
+    Assert.assertEquals(2, new CheckInStats("sample1").getCheckInCount());
+    Assert.assertEquals(1, new CheckInStats("sample2").getCheckInCount());
+    new StoreDatastoreHandler("sample1").deleteStoreAndRatings();
+    new StoreDatastoreHandler("sample2").deleteStoreAndRatings();
+  }
+
+  /** Deleting all data should remove every store with its ratings and sums. */
+  @Test
+  public void deleteAllData() {
+    HashMap<String, String[]> sampleHttpRequestParam = new HashMap();
+    sampleHttpRequestParam.put("busy", new String[] {"9.0"});
+
+    // Insert ratings into two stores.
+    StoreDatastoreHandler store = new StoreDatastoreHandler("sample1");
+    StoreDatastoreHandler otherStore = new StoreDatastoreHandler("sample2");
+    store.placeStore(sampleHttpRequestParam);
+    store.placeStore(sampleHttpRequestParam);
+    otherStore.placeStore(sampleHttpRequestParam);
+
+    store.deleteData();
+
+    Assert.assertEquals(new ArrayList(), store.getRatings());
+    Assert.assertEquals(new ArrayList(), otherStore.getRatingDays());
+    Assert.assertEquals(null, otherStore.getStoreSums());
+  }
+
+  /** Paging through ratings should return each rating once, with only the categories. */
+  @Test
+  public void pageProjectedRatings() {
+    StoreDatastoreHandler store = new StoreDatastoreHandler("sample1");
+    for (String busy : new String[] {"1.0", "2.0", "3.0"}) {
+      HashMap<String, String[]> sampleHttpRequestParam = new HashMap();
+      sampleHttpRequestParam.put("busy", new String[] {busy});
+      sampleHttpRequestParam.put("line", new String[] {"6.0"});
+      sampleHttpRequestParam.put("hygiene", new String[] {"6.0"});
+      sampleHttpRequestParam.put("mask", new String[] {"7.0"});
+      store.placeStore(sampleHttpRequestParam);
+    }
+
+    // Read the ratings two at a time.
+    RatingQuery query = new RatingQuery().setProjected(true).setLimit(2);
+    RatingPage firstPage = store.getRatings(query);
+    RatingPage secondPage = store.getRatings(query.setCursor(firstPage.getCursor()));
+
+    Assert.assertEquals(2, firstPage.getRatings().size());
+    Assert.assertEquals(1, secondPage.getRatings().size());
+    Assert.assertEquals(null, secondPage.getCursor());
+    Assert.assertEquals(null, firstPage.getRatings().get(0).getProperty("User"));
+
+    // Every rating should be read once.
+    HashSet<Double> busyValues = new HashSet();
+    for (Entity rating : firstPage.getRatings()) {
+      busyValues.add((Double) rating.getProperty("busy"));
+    }
+    busyValues.add((Double) secondPage.getRatings().get(0).getProperty("busy"));
+    Assert.assertEquals(new HashSet(Arrays.asList(1.0, 2.0, 3.0)), busyValues);
+
+    // Ratings placed before now should not be in a range that starts tomorrow.
+    Date tomorrow = new Date(System.currentTimeMillis() + 24 * 60 * 60 * 1000);
+    Assert.assertEquals(
+        0, store.getRatings(new RatingQuery().setRange(tomorrow, null)).getRatings().size());
+    store.deleteStoreAndRatings();
+  }
+
+  /**
+   * Busy batches of check ins should double the shards of the store up to the most it gets, and
+   * the sums and days of all shards should add up to every check in.
+   */
+  @Test
+  public void spreadCheckInsOverShards() {
+    StoreDatastoreHandler store = new StoreDatastoreHandler("sample1");
+
+    // A batch doubles the shards when it lands on a shard not busy yet, so keep placing them.
+    int batches = 0;
+    while (getShardCount("sample1") < 16 && batches < 100) {
+      placeBusyBatch(store, batches++);
+    }
+    Assert.assertEquals(16, getShardCount("sample1"));
+    for (int i = 0; i < 4; i++) {
+      placeBusyBatch(store, batches++);
+    }
+    Assert.assertEquals(16, getShardCount("sample1"));
+
+    int checkIns = batches * BUSY_BATCH;
+    Entity sums = store.getStoreSums();
+    Assert.assertEquals((long) checkIns, sums.getProperty("checkInCount"));
+    Assert.assertEquals(getBusySum(checkIns), (double) sums.getProperty("busySum"), 0.001);
+    Assert.assertEquals(checkIns, new CheckInStats("sample1").getCheckInCount());
+
+    long dayCount = 0;
+    for (Entity ratingDay : store.getRatingDays()) {
+      dayCount += (long) ratingDay.getProperty("checkInCount");
+    }
+    Assert.assertEquals(checkIns, dayCount);
+    store.deleteStoreAndRatings();
+  }
+
+  /** A store deleted without this instance knowing should not get ratings on its old shards. */
+  @Test
+  public void placeCheckInsAfterStoreDeletedElsewhere() {
+    StoreDatastoreHandler store = new StoreDatastoreHandler("sample1");
+    int batches = 0;
+    while (getShardCount("sample1") < 4 && batches < 100) {
+      placeBusyBatch(store, batches++);
+    }
+    Assert.assertEquals(4, getShardCount("sample1"));
+
+    // Delete every entity directly, as another instance would, so the known shards are stale.
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    for (String kind : new String[] {"Store", "RatingShard", "Rating", "RatingDay"}) {
+      for (Entity entity : datastore.prepare(new Query(kind).setKeysOnly()).asIterable()) {
+        datastore.delete(entity.getKey());
+      }
+    }
+
+    // Check ins should recreate the store, without writing to the shards it no longer has.
+    Map<String, String[]> sampleHttpRequestParam = new HashMap<>();
+    sampleHttpRequestParam.put("busy", new String[] {"3"});
+    for (int i = 0; i < 10; i++) {
+      store.placeStore(sampleHttpRequestParam);
+    }
+    FetchOptions all = FetchOptions.Builder.withDefaults();
+    Assert.assertEquals(0, datastore.prepare(new Query("RatingShard")).countEntities(all));
+    Assert.assertEquals(10L, store.getStoreSums().getProperty("checkInCount"));
+    store.deleteStoreAndRatings();
+  }
+
+  /** Ratings of every shard should be merged by date, and paging should resume mid merge. */
+  @Test
+  public void pageRatingsOverShards() {
+    StoreDatastoreHandler store = new StoreDatastoreHandler("sample1");
+    for (int batch = 0; batch < 3; batch++) {
+      placeBusyBatch(store, batch);
+    }
+    int checkIns = 3 * BUSY_BATCH;
+    Assert.assertTrue(getShardCount("sample1") > 1);
+
+    // All ratings should come back once, in the order they were placed.
+    List<Entity> ratings = store.getRatings();
+    Assert.assertEquals(checkIns, ratings.size());
+    for (int i = 0; i < checkIns; i++) {
+      Assert.assertEquals(new Date(START_MILLIS + i * 1000L), ratings.get(i).getProperty("Date"));
+    }
+
+    // Paging seven at a time should return the same ratings in the same order.
+    List<Entity> pagedRatings = new ArrayList<>();
+    RatingQuery query = new RatingQuery().setLimit(7);
+    RatingPage page;
+    do {
+      page = store.getRatings(query);
+      pagedRatings.addAll(page.getRatings());
+      query.setCursor(page.getCursor());
+    } while (page.getCursor() != null);
+    Assert.assertEquals(ratings, pagedRatings);
+
+    // Before the last rating, the other shards are done and only the last rating is left.
+    RatingPage allButLast = store.getRatings(new RatingQuery().setLimit(checkIns - 1));
+    Assert.assertTrue(Arrays.asList(allButLast.getCursor().split(":")).contains("done"));
+    RatingPage last = store.getRatings(new RatingQuery().setCursor(allButLast.getCursor()));
+    Assert.assertEquals(1, last.getRatings().size());
+    Assert.assertEquals(ratings.get(checkIns - 1), last.getRatings().get(0));
+    Assert.assertEquals(null, last.getCursor());
+    store.deleteStoreAndRatings();
+  }
+
+  /** Places a batch of check ins a second apart, busy rated 0 to 9 in turn. */
+  private static void placeBusyBatch(StoreDatastoreHandler store, int batch) {
+    List<CheckIn> checkIns = new ArrayList<>();
+    for (int i = batch * BUSY_BATCH; i < (batch + 1) * BUSY_BATCH; i++) {
+      Map<String, String[]> sampleHttpRequestParam = new HashMap<>();
+      sampleHttpRequestParam.put("busy", new String[] {String.valueOf(i % 10)});
+      Date date = new Date(START_MILLIS + i * 1000L);
+      checkIns.add(new CheckIn("sample1", sampleHttpRequestParam, date));
+    }
+    store.placeCheckIns(checkIns);
+  }
+
+  /** Returns the entity tag of a response built from the check in stats of the store. */
+  private static String getEntityTag(HttpServletRequest request, String storeId) {
+    return ConditionalResponse.getEntityTag(
+        request, new CheckInStats(storeId).getVersions().toArray());
+  }
+
+  /** Returns the shard count kept on the Store entity, 1 if it has none. */
+  private static int getShardCount(String storeId) {
+    try {
+      Entity storeEntity =
+          DatastoreServiceFactory.getDatastoreService().get(KeyFactory.createKey("Store", storeId));
+      Long shardCount = (Long) storeEntity.getProperty("shardCount");
+      return shardCount == null ? 1 : shardCount.intValue();
+    } catch (EntityNotFoundException e) {
+      return 1;
+    }
+  }
+
+  /** Returns the busy sum of the first check ins placed by placeBusyBatch. */
+  private static double getBusySum(int checkIns) {
+    double sum = 0;
+    for (int i = 0; i < checkIns; i++) {
+      sum += i % 10;
+    }
+    return sum;
+  }
 }
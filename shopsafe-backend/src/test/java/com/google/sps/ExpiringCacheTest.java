@@ -0,0 +1,227 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.sps.data.ExpiringCache;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Class that tests the expiring cache. */
+@RunWith(JUnit4.class)
+public final class ExpiringCacheTest {
+
+  // Fake clock in milliseconds, moved forward by the tests.
+  private long now = 0;
+
+  private ExpiringCache<String, String> cache = new ExpiringCache<>(2, 1000, () -> now);
+
+  /** A cached value should be returned and counted as a hit. */
+  @Test
+  public void getCachedValue() {
+    cache.put("Philadelphia", "39.95,-75.16");
+
+    Assert.assertEquals("39.95,-75.16", cache.get("Philadelphia"));
+    Assert.assertEquals(null, cache.get("Pittsburgh"));
+    Assert.assertEquals(1, cache.getHitCount());
+    Assert.assertEquals(1, cache.getMissCount());
+  }
+
+  /** A value should no longer be returned once it is older than the time to live. */
+  @Test
+  public void expireValue() {
+    cache.put("Philadelphia", "39.95,-75.16");
+
+    now = 999;
+    Assert.assertEquals("39.95,-75.16", cache.get("Philadelphia"));
+    now = 1000;
+    Assert.assertEquals(null, cache.get("Philadelphia"));
+    Assert.assertEquals(0, cache.size());
+  }
+
+  /** The least recently used value should be evicted when the cache is full. */
+  @Test
+  public void evictLeastRecentlyUsed() {
+    cache.put("Philadelphia", "39.95,-75.16");
+    cache.put("Pittsburgh", "40.44,-79.99");
+    cache.get("Philadelphia");
+    cache.put("Lancaster", "40.04,-76.31");
+
+    Assert.assertEquals(2, cache.size());
+    Assert.assertEquals(1, cache.getEvictionCount());
+    Assert.assertEquals("39.95,-75.16", cache.get("Philadelphia"));
+    Assert.assertEquals(null, cache.get("Pittsburgh"));
+  }
+
+  /** A missing value should be loaded once and cached, a null load should not be cached. */
+  @Test
+  public void loadMissingValue() {
+    AtomicInteger loadCount = new AtomicInteger();
+
+    Assert.assertEquals(
+        "Walmart",
+        cache.get(
+            "store",
+            id -> {
+              loadCount.incrementAndGet();
+              return "Walmart";
+            }));
+    Assert.assertEquals("Walmart", cache.get("store", id -> "Target"));
+    Assert.assertEquals(null, cache.get("missing", id -> null));
+
+    Assert.assertEquals(1, loadCount.get());
+    Assert.assertEquals(1, cache.size());
+  }
+
+  /** Concurrent misses for the same key should share a single load. */
+  @Test
+  public void coalesceConcurrentLoads() throws InterruptedException {
+    AtomicInteger loadCount = new AtomicInteger();
+    CountDownLatch loading = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+
+    // Start a slow load, then ask for the same key while it is in flight.
+    Thread first =
+        new Thread(
+            () ->
+                cache.get(
+                    "store",
+                    id -> {
+                      loadCount.incrementAndGet();
+                      loading.countDown();
+                      try {
+                        release.await();
+                      } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                      }
+                      return "Walmart";
+                    }));
+    first.start();
+    loading.await();
+
+    String[] secondResult = new String[1];
+    Thread second =
+        new Thread(
+            () ->
+                secondResult[0] =
+                    cache.get(
+                        "store",
+                        id -> {
+                          loadCount.incrementAndGet();
+                          return "Target";
+                        }));
+    second.start();
+
+    // Let the first load finish once the second thread is waiting for it.
+    while (second.getState() != Thread.State.WAITING
+        && second.getState() != Thread.State.TERMINATED) {
+      Thread.sleep(1);
+    }
+    release.countDown();
+    first.join();
+    second.join();
+
+    Assert.assertEquals("Walmart", secondResult[0]);
+    Assert.assertEquals(1, loadCount.get());
+  }
+
+  /** A thread waiting for a failed load should get the same exception as the loading thread. */
+  @Test
+  public void shareLoadException() throws InterruptedException {
+    CountDownLatch loading = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    RuntimeException[] errors = new RuntimeException[2];
+
+    // Start a load that fails once released, then ask for the same key while it is in flight.
+    Thread first =
+        new Thread(
+            () -> {
+              try {
+                cache.get(
+                    "store",
+                    id -> {
+                      loading.countDown();
+                      try {
+                        release.await();
+                      } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                      }
+                      throw new IllegalStateException("Places API failed.");
+                    });
+              } catch (RuntimeException e) {
+                errors[0] = e;
+              }
+            });
+    first.start();
+    loading.await();
+    Thread second =
+        new Thread(
+            () -> {
+              try {
+                cache.get("store", id -> "Target");
+              } catch (RuntimeException e) {
+                errors[1] = e;
+              }
+            });
+    second.start();
+    while (second.getState() != Thread.State.WAITING
+        && second.getState() != Thread.State.TERMINATED) {
+      Thread.sleep(1);
+    }
+    release.countDown();
+    first.join();
+    second.join();
+
+    Assert.assertTrue(errors[0] instanceof IllegalStateException);
+    Assert.assertTrue(errors[1] instanceof IllegalStateException);
+    Assert.assertEquals(0, cache.size());
+  }
+
+  /** Many threads missing the same key at once should still load it only once. */
+  @Test
+  public void loadOnceUnderContention() throws InterruptedException {
+    AtomicInteger loadCount = new AtomicInteger();
+    CountDownLatch start = new CountDownLatch(1);
+    Thread[] threads = new Thread[16];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] =
+          new Thread(
+              () -> {
+                try {
+                  start.await();
+                } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                }
+                cache.get(
+                    "store",
+                    id -> {
+                      loadCount.incrementAndGet();
+                      return "Walmart";
+                    });
+              });
+      threads[i].start();
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    Assert.assertEquals(1, loadCount.get());
+    Assert.assertEquals("Walmart", cache.get("store"));
+  }
+}
@@ -0,0 +1,146 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.gson.Gson;
+import com.google.sps.data.CheckInStats;
+import com.google.sps.data.County;
+import com.google.sps.data.CountyStats;
+import com.google.sps.data.DataPoint;
+import com.google.sps.data.LatLng;
+import com.google.sps.data.ResultJson;
+import com.google.sps.data.Store;
+import com.google.sps.data.StoreResult;
+import com.google.sps.data.StoreStats;
+import com.google.sps.data.StoresResult;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Class that tests the serializer of the servlet responses. */
+@RunWith(JUnit4.class)
+public final class ResultJsonTest {
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  /** The stores response should be the same json that reflective Gson writes. */
+  @Test
+  public void writeStoresLikeGson() throws IOException {
+    LatLng userLocation = new LatLng(40.7, -74.0);
+    List<StoreStats> stores = new ArrayList<>();
+    stores.add(
+        new StoreStats(
+            new Store("a", "Shop <A> & Co", "1 Main St", true, new LatLng(40.8, -74.1), 4.5),
+            7.5,
+            new CheckInStats("a"),
+            userLocation));
+    stores.add(
+        new StoreStats(
+            new Store("b", "Shop 'B'", "2 Main St", null, new LatLng(40.6, -73.9), 0),
+            2,
+            new CheckInStats("b"),
+            userLocation));
+    StoresResult result = new StoresResult(stores, userLocation);
+    StringWriter writer = new StringWriter();
+
+    ResultJson.write(result, writer);
+
+    Assert.assertEquals(new Gson().toJson(result) + System.lineSeparator(), writer.toString());
+  }
+
+  /** The store response should be the same json that reflective Gson writes. */
+  @Test
+  public void writeStoreLikeGson() throws IOException {
+    LatLng userLocation = new LatLng(40.7, -74.0);
+    StoreStats store =
+        new StoreStats(
+            new Store("a", "Shop <A> & Co", "1 Main St", true, new LatLng(40.8, -74.1), 4.5),
+            7.5,
+            new CheckInStats("a"),
+            userLocation);
+    HashMap<String, ArrayList<DataPoint>> ratings = new HashMap<>();
+    ratings.put("busy", getDataPoints(3));
+    ratings.put("mask", getDataPoints(1));
+    StoreResult result = new StoreResult(store, getCountyStats(), ratings);
+
+    assertWritesLikeGson(result);
+  }
+
+  /** County stats with cases over time should be the same json that reflective Gson writes. */
+  @Test
+  public void writeCountyStatsLikeGson() throws IOException {
+    StoreResult result = new StoreResult(null, getCountyStats(), new HashMap<>());
+
+    assertWritesLikeGson(result);
+  }
+
+  /** Data points, and lists of them that are empty or missing, should be written like Gson. */
+  @Test
+  public void writeDataPointsLikeGson() throws IOException {
+    HashMap<String, ArrayList<DataPoint>> ratings = new HashMap<>();
+    ratings.put("busy", getDataPoints(5));
+    ratings.put("line", new ArrayList<>());
+    ratings.put("hygiene", null);
+    StoreResult result = new StoreResult(null, null, ratings);
+
+    assertWritesLikeGson(result);
+  }
+
+  private static void assertWritesLikeGson(StoreResult result) throws IOException {
+    StringWriter writer = new StringWriter();
+
+    ResultJson.write(result, writer);
+
+    Assert.assertEquals(new Gson().toJson(result) + System.lineSeparator(), writer.toString());
+  }
+
+  /** Returns county stats of a made up county, with a made up series of cases. */
+  private static CountyStats getCountyStats() {
+    CountyStats countyStats = new CountyStats(new County("Fake <County>", "Place", "100000"));
+    countyStats.setCovidData(getDataPoints(7));
+    return countyStats;
+  }
+
+  /** Returns data points a day apart, with whole and fractional values. */
+  private static ArrayList<DataPoint> getDataPoints(int count) {
+    ArrayList<DataPoint> points = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      points.add(new DataPoint(i * 1.25, new Date(1590000000000L + i * 24 * 60 * 60 * 1000L)));
+    }
+    return points;
+  }
+}
@@ -0,0 +1,113 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.sps.data.DataPoint;
+import com.google.sps.data.SeriesRange;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Class that tests the date range and resolution of chart series. */
+@RunWith(JUnit4.class)
+public final class SeriesRangeTest {
+
+  // A point a day from Wednesday 2020-07-01 to Monday 2020-08-03, valued by day of the series.
+  private final List<DataPoint> points = new ArrayList<>();
+
+  public SeriesRangeTest() {
+    LocalDate day = LocalDate.parse("2020-07-01");
+    for (int i = 0; !day.isAfter(LocalDate.parse("2020-08-03")); i++) {
+      points.add(new DataPoint(i, Date.from(day.atStartOfDay(ZoneId.systemDefault()).toInstant())));
+      day = day.plusDays(1);
+    }
+  }
+
+  /** Without a range, every daily point should be kept. */
+  @Test
+  public void keepEveryDay() {
+    SeriesRange range = new SeriesRange(null, null, SeriesRange.Resolution.DAY);
+
+    Assert.assertEquals(points.size(), range.apply(points).size());
+  }
+
+  /** Without a start, only the last 90 days up to the end or today should be kept. */
+  @Test
+  public void keepLastDaysByDefault() {
+    LocalDate today = LocalDate.parse("2020-09-30");
+    SeriesRange range = SeriesRange.withDefaults(null, null, SeriesRange.Resolution.DAY, today);
+
+    List<DataPoint> result = range.apply(points);
+
+    // The 90 days up to 09-30 start on 07-03.
+    Assert.assertEquals(32, result.size());
+    Assert.assertEquals("2020-07-03 00:00", result.get(0).getDate());
+
+    // A given end should bound the series instead of today, and a given start is kept.
+    LocalDate to = LocalDate.parse("2020-07-31");
+    range = SeriesRange.withDefaults(null, to, SeriesRange.Resolution.DAY, today);
+    Assert.assertEquals(31, range.apply(points).size());
+    LocalDate from = LocalDate.parse("2020-07-01");
+    range = SeriesRange.withDefaults(from, null, SeriesRange.Resolution.DAY, today);
+    Assert.assertEquals(34, range.apply(points).size());
+  }
+
+  /** Only points inside the range, including both ends, should be kept. */
+  @Test
+  public void keepPointsInRange() {
+    LocalDate from = LocalDate.parse("2020-07-10");
+    LocalDate to = LocalDate.parse("2020-07-12");
+    SeriesRange range = new SeriesRange(from, to, SeriesRange.Resolution.DAY);
+
+    List<DataPoint> result = range.apply(points);
+
+    Assert.assertEquals(3, result.size());
+    Assert.assertEquals("2020-07-10 00:00", result.get(0).getDate());
+    Assert.assertEquals("2020-07-12 00:00", result.get(2).getDate());
+  }
+
+  /** Each week, starting on monday, should keep its last point. */
+  @Test
+  public void lastPointOfEachWeek() {
+    SeriesRange range = new SeriesRange(null, null, SeriesRange.Resolution.WEEK);
+
+    List<DataPoint> result = range.apply(points);
+
+    // Weeks start on 06-29, 07-06, 07-13, 07-20, 07-27 and 08-03.
+    Assert.assertEquals(6, result.size());
+    Assert.assertEquals("2020-07-05 00:00", result.get(0).getDate());
+    Assert.assertEquals(4, result.get(0).getValue(), 0.0001);
+    Assert.assertEquals("2020-08-03 00:00", result.get(5).getDate());
+  }
+
+  /** Each month should keep its last point, and the original series should not change. */
+  @Test
+  public void lastPointOfEachMonth() {
+    SeriesRange range = new SeriesRange(null, null, SeriesRange.Resolution.MONTH);
+
+    List<DataPoint> result = range.apply(points);
+
+    Assert.assertEquals(2, result.size());
+    Assert.assertEquals("2020-07-31 00:00", result.get(0).getDate());
+    Assert.assertEquals("2020-08-03 00:00", result.get(1).getDate());
+    Assert.assertEquals(34, points.size());
+  }
+}
@@ -0,0 +1,114 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.sps.data.County;
+import com.google.sps.data.LatLng;
+import com.google.sps.data.Store;
+import com.google.sps.data.UpstreamJson;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Class that tests the streaming decoders of the upstream api responses. */
+@RunWith(JUnit4.class)
+public final class UpstreamJsonTest {
+
+  private static final double DELTA = 1e-9;
+
+  /** Stores of a text search should be read with their optional fields, skipping the rest. */
+  @Test
+  public void readSearchStores() throws IOException {
+    String json =
+        "{\"html_attributions\": [], \"results\": ["
+            + "{\"place_id\": \"a\", \"name\": \"Shop A\", \"formatted_address\": \"1 Main St\","
+            + " \"geometry\": {\"location\": {\"lat\": 40.5, \"lng\": -74.25},"
+            + " \"viewport\": {\"northeast\": {\"lat\": 41, \"lng\": -74}}},"
+            + " \"opening_hours\": {\"open_now\": true}, \"photos\": [{\"height\": 1}],"
+            + " \"rating\": 4.5},"
+            + "{\"place_id\": \"b\", \"name\": \"Shop B\", \"formatted_address\": \"2 Main St\","
+            + " \"geometry\": {\"location\": {\"lat\": 1, \"lng\": 2}}, \"opening_hours\": {}}"
+            + "], \"status\": \"OK\"}";
+    List<Store> stores = new ArrayList<>();
+
+    UpstreamJson.readSearchStores(new StringReader(json), stores);
+
+    Assert.assertEquals(2, stores.size());
+    Assert.assertEquals("a", stores.get(0).getId());
+    Assert.assertEquals("1 Main St", stores.get(0).getAddress());
+    Assert.assertEquals(Boolean.TRUE, stores.get(0).getOpen());
+    Assert.assertEquals(40.5, stores.get(0).getLatitude(), DELTA);
+    Assert.assertEquals(-74.25, stores.get(0).getLongitude(), DELTA);
+    Assert.assertEquals(4.5, stores.get(0).getRating(), DELTA);
+    Assert.assertNull(stores.get(1).getOpen());
+    Assert.assertEquals(0, stores.get(1).getRating(), DELTA);
+  }
+
+  /** A details response should give the store with the id that was asked for. */
+  @Test
+  public void readDetailsStore() throws IOException {
+    String json =
+        "{\"result\": {\"name\": \"Shop\", \"vicinity\": \"Town\","
+            + " \"geometry\": {\"location\": {\"lat\": 3, \"lng\": 4}}}, \"status\": \"OK\"}";
+
+    Store store = UpstreamJson.readDetailsStore(new StringReader(json), "id");
+
+    Assert.assertEquals("id", store.getId());
+    Assert.assertEquals("Town", store.getAddress());
+    Assert.assertEquals(3, store.getLatitude(), DELTA);
+  }
+
+  /** A details response without a result should fail like the full parse did. */
+  @Test(expected = IOException.class)
+  public void readMissingDetailsStore() throws IOException {
+    UpstreamJson.readDetailsStore(new StringReader("{\"status\": \"INVALID_REQUEST\"}"), "id");
+  }
+
+  /** Only the location of the first geocoding result should be used. */
+  @Test
+  public void readGeocodeLocation() throws IOException {
+    String json =
+        "{\"results\": [{\"address_components\": [],"
+            + " \"geometry\": {\"location\": {\"lat\": 5, \"lng\": 6}}},"
+            + " {\"geometry\": {\"location\": {\"lat\": 7, \"lng\": 8}}}]}";
+
+    LatLng location = UpstreamJson.readGeocodeLocation(new StringReader(json));
+
+    Assert.assertEquals(5, location.getLatitude(), DELTA);
+    Assert.assertEquals(6, location.getLongitude(), DELTA);
+    Assert.assertNull(
+        UpstreamJson.readGeocodeLocation(new StringReader("{\"results\": [], \"status\": \"x\"}")));
+  }
+
+  /** The county of the first FCC result should be read. */
+  @Test
+  public void readFccCounty() throws IOException {
+    String json =
+        "{\"input\": {\"lat\": 1}, \"results\": [{\"block_fips\": \"1\","
+            + " \"county_fips\": \"06085\", \"county_name\": \"Santa Clara\","
+            + " \"state_name\": \"California\"}]}";
+
+    County county = UpstreamJson.readFccCounty(new StringReader(json));
+
+    Assert.assertEquals("Santa Clara", county.getCountyName());
+    Assert.assertEquals("California", county.getStateName());
+    Assert.assertEquals("06085", county.getCountyFips());
+  }
+}
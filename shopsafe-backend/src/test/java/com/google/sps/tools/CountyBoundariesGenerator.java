@@ -0,0 +1,216 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.tools;
+
+import com.google.sps.data.CountyTables;
+import com.opencsv.CSVReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/*
+ * Generates the county boundaries csv read by CountyBoundaries from the zipped KML of the Census
+ * cartographic boundary county file. County names come from the KML, matching the names of the
+ * FCC api, and state names from the county population csv. It is a tool kept with the tests, out
+ * of the war, run with the county-boundaries profile of the pom to write the csv files that are
+ * checked in.
+ */
+public final class CountyBoundariesGenerator {
+
+  private static final Logger logger = Logger.getLogger(CountyBoundariesGenerator.class.getName());
+
+  private CountyBoundariesGenerator() {}
+
+  /**
+   * Arguments are the url of the zipped KML, its SHA-256 checksum, the population csv, and the csv
+   * files to write. Nothing is written unless the download matches the checksum.
+   */
+  public static void main(String[] args) throws IOException, XMLStreamException {
+    if (args.length < 4) {
+      throw new IllegalArgumentException(
+          "Usage: CountyBoundariesGenerator <kml zip url> <sha256> <population csv> <csv>...");
+    }
+
+    // Download the zip and check it is the pinned file, so the csv only changes with the pin.
+    byte[] zip = download(args[0]);
+    String checksum = sha256(zip);
+    if (!checksum.equalsIgnoreCase(args[1])) {
+      throw new IOException(
+          "Checksum of " + args[0] + " is " + checksum + ", expected " + args[1] + ".");
+    }
+
+    // Write the first csv file, then copy it to the others.
+    Path first = Paths.get(args[3]);
+    createParent(first);
+    int rings;
+    try (Writer writer = Files.newBufferedWriter(first, StandardCharsets.UTF_8)) {
+      rings = generate(new ByteArrayInputStream(zip), readStateNames(args[2]), writer);
+    }
+    for (int i = 4; i < args.length; i++) {
+      Path copy = Paths.get(args[i]);
+      createParent(copy);
+      Files.copy(first, copy, StandardCopyOption.REPLACE_EXISTING);
+    }
+    logger.info("Generated " + rings + " county boundary rings from " + args[0]);
+  }
+
+  /** Read everything at the url. */
+  private static byte[] download(String url) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (InputStream stream = new URL(url).openStream()) {
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = stream.read(buffer)) != -1) {
+        bytes.write(buffer, 0, read);
+      }
+    }
+    return bytes.toByteArray();
+  }
+
+  /** Returns the SHA-256 checksum of the bytes in hex. */
+  private static String sha256(byte[] bytes) {
+    try {
+      StringBuilder hex = new StringBuilder();
+      for (byte value : MessageDigest.getInstance("SHA-256").digest(bytes)) {
+        hex.append(String.format("%02x", value));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static void createParent(Path path) throws IOException {
+    if (path.getParent() != null) {
+      Files.createDirectories(path.getParent());
+    }
+  }
+
+  /**
+   * Write the csv rows for the counties in the zipped KML stream, one row per polygon ring, and
+   * return the number of rings. Counties of states without a name are left out.
+   */
+  public static int generate(InputStream zipStream, Map<String, String> stateNames, Writer writer)
+      throws IOException, XMLStreamException {
+    ZipInputStream zip = new ZipInputStream(zipStream);
+    ZipEntry entry;
+    while ((entry = zip.getNextEntry()) != null) {
+      if (entry.getName().endsWith(".kml")) {
+        return writeRings(zip, stateNames, writer);
+      }
+    }
+    throw new IOException("No KML file in the county boundaries zip.");
+  }
+
+  /** Read the KML placemarks of the counties, writing each of their rings as a csv row. */
+  private static int writeRings(InputStream kml, Map<String, String> stateNames, Writer writer)
+      throws IOException, XMLStreamException {
+    writer.write("county_fips,county_name,state_name,ring\n");
+    XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(kml, "UTF-8");
+    Map<String, String> fields = new HashMap<>();
+    List<String> rings = new ArrayList<>();
+    int count = 0;
+    while (reader.hasNext()) {
+      int event = reader.next();
+      if (event == XMLStreamReader.START_ELEMENT) {
+        String element = reader.getLocalName();
+        if (element.equals("Placemark")) {
+          fields.clear();
+          rings.clear();
+        } else if (element.equals("SimpleData")) {
+          fields.put(reader.getAttributeValue(null, "name"), reader.getElementText().trim());
+        } else if (element.equals("coordinates")) {
+          rings.add(toRing(reader.getElementText()));
+        }
+      } else if (event == XMLStreamReader.END_ELEMENT
+          && reader.getLocalName().equals("Placemark")) {
+        String stateName = stateNames.get(fields.get("STATEFP"));
+        if (stateName == null || !fields.containsKey("GEOID") || !fields.containsKey("NAME")) {
+          continue;
+        }
+        for (String ring : rings) {
+          writer.write(
+              toCsv(fields.get("GEOID"))
+                  + ","
+                  + toCsv(fields.get("NAME"))
+                  + ","
+                  + toCsv(stateName)
+                  + ","
+                  + toCsv(ring)
+                  + "\n");
+          count += 1;
+        }
+      }
+    }
+    writer.flush();
+    return count;
+  }
+
+  /** Convert KML coordinates, "lng,lat[,alt]" tuples split by spaces, to "lng lat,lng lat". */
+  private static String toRing(String coordinates) {
+    StringBuilder ring = new StringBuilder();
+    for (String tuple : coordinates.trim().split("\\s+")) {
+      String[] values = tuple.split(",");
+      if (ring.length() > 0) {
+        ring.append(',');
+      }
+      ring.append(values[0]).append(' ').append(values[1]);
+    }
+    return ring.toString();
+  }
+
+  private static String toCsv(String value) {
+    return "\"" + value.replace("\"", "\"\"") + "\"";
+  }
+
+  /** Read the state names by two digit state fips, from the state rows of the population csv. */
+  public static Map<String, String> readStateNames(String populationLocation) throws IOException {
+    Map<String, String> stateNames = new HashMap<>();
+    CSVReader reader = new CSVReader(new FileReader(populationLocation));
+    try {
+      String[] nextLine = reader.readNext();
+      while ((nextLine = reader.readNext()) != null) {
+        int fips = CountyTables.parseFips(nextLine[3]);
+        if (fips > 0 && fips % 1000 == 0) {
+          stateNames.put(String.format("%02d", fips / 1000), nextLine[0]);
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return stateNames;
+  }
+}